@@ -0,0 +1,63 @@
+package com.brainasaservice.statefulrelay.benchmark;
+
+import com.brainasaservice.statefulrelay.StatefulRelay;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * Multi-threaded subscribe/invalidate contention on a single relay. Readers and invalidators
+ * race on the relay's lifecycle state; thread hops are removed so the state transitions dominate.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ContentionBenchmark {
+
+    private StatefulRelay<Long> relay;
+
+    @Setup
+    public void setUp() {
+        final AtomicLong counter = new AtomicLong();
+        relay = new StatefulRelay.Builder<Long>()
+                .withInitialization(0L)
+                .withUpdater(new Callable<Long>() {
+                    @Override
+                    public Long call() throws Exception {
+                        return counter.incrementAndGet();
+                    }
+                })
+                .withSubscribeScheduler(Schedulers.trampoline())
+                .withUpdateScheduler(Schedulers.trampoline())
+                .withMinimalThreadHops()
+                .build();
+        relay.asFlowable().blockingFirst();
+    }
+
+    @Benchmark
+    @Group("contention")
+    @GroupThreads(3)
+    public Long subscribe() {
+        return relay.asFlowable().blockingFirst();
+    }
+
+    @Benchmark
+    @Group("contention")
+    @GroupThreads(1)
+    public void invalidate() {
+        relay.invalidate();
+    }
+}
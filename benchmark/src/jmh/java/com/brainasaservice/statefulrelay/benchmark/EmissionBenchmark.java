@@ -0,0 +1,80 @@
+package com.brainasaservice.statefulrelay.benchmark;
+
+import com.brainasaservice.statefulrelay.Invalidator;
+import com.brainasaservice.statefulrelay.StatefulRelay;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * Per-emission overhead of fanning an updated value out to many subscribers, with and without an
+ * {@link Invalidator}, which is evaluated once per updated value rather than per emission. Runs without thread hops so the update and its
+ * delivery happen on the benchmark thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EmissionBenchmark {
+
+    @Param({"1", "100", "2000"})
+    public int subscribers;
+
+    @Param({"false", "true"})
+    public boolean withInvalidator;
+
+    private StatefulRelay<Long> relay;
+
+    private final CompositeDisposable disposables = new CompositeDisposable();
+
+    @Setup
+    public void setUp() {
+        final AtomicLong counter = new AtomicLong();
+        StatefulRelay.Builder<Long> builder = new StatefulRelay.Builder<Long>()
+                .withInitialization(0L)
+                .withUpdater(new Callable<Long>() {
+                    @Override
+                    public Long call() throws Exception {
+                        return counter.incrementAndGet();
+                    }
+                })
+                .withSubscribeScheduler(Schedulers.trampoline())
+                .withUpdateScheduler(Schedulers.trampoline())
+                .withMinimalThreadHops();
+        if (withInvalidator) {
+            builder.withInvalidator(new Invalidator<Long>() {
+                @Override
+                public boolean isInvalidated(Long value) {
+                    return value < 0;
+                }
+            });
+        }
+        relay = builder.build();
+        for (int i = 0; i < subscribers; i++) {
+            disposables.add(relay.asFlowable().subscribe());
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        disposables.clear();
+    }
+
+    @Benchmark
+    public Long emit() {
+        return relay.update().blockingGet();
+    }
+}
@@ -0,0 +1,73 @@
+package com.brainasaservice.statefulrelay.benchmark;
+
+import com.brainasaservice.statefulrelay.StatefulRelay;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.reactivex.Scheduler;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.functions.Predicate;
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * Invalidate-then-read cycles: every invocation invalidates the relay and waits for the updated
+ * value to arrive.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class InvalidationBenchmark {
+
+    @Param({"io", "trampoline"})
+    public String schedulers;
+
+    private StatefulRelay<Long> relay;
+
+    private long last;
+
+    @Setup
+    public void setUp() {
+        Scheduler scheduler = "io".equals(schedulers) ? Schedulers.io() : Schedulers.trampoline();
+        final AtomicLong counter = new AtomicLong();
+        relay = new StatefulRelay.Builder<Long>()
+                .withInitialization(0L)
+                .withUpdater(new Callable<Long>() {
+                    @Override
+                    public Long call() throws Exception {
+                        return counter.incrementAndGet();
+                    }
+                })
+                .withSubscribeScheduler(scheduler)
+                .withUpdateScheduler(scheduler)
+                .withDeliveryScheduler(scheduler)
+                .build();
+        last = relay.asFlowable().blockingFirst();
+    }
+
+    @Benchmark
+    public Long invalidateThenRead() {
+        final long stale = last;
+        relay.invalidate();
+        // The stale value may be replayed first, wait for the updated one.
+        last = relay.asFlowable()
+                .filter(new Predicate<Long>() {
+                    @Override
+                    public boolean test(@NonNull Long value) throws Exception {
+                        return value > stale;
+                    }
+                })
+                .blockingFirst();
+        return last;
+    }
+}
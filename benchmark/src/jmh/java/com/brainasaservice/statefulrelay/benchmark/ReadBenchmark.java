@@ -0,0 +1,72 @@
+package com.brainasaservice.statefulrelay.benchmark;
+
+import com.brainasaservice.statefulrelay.StatefulRelay;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Scheduler;
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * Subscribe-to-first-item latency on a warm value and cold initialization through
+ * {@code maybeInitialValue()}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ReadBenchmark {
+
+    /**
+     * "io" uses the default schedulers, "trampoline" removes all thread hops to isolate the
+     * relay's own overhead.
+     */
+    @Param({"io", "trampoline"})
+    public String schedulers;
+
+    private StatefulRelay<String> warmRelay;
+
+    @Setup
+    public void setUp() {
+        warmRelay = builder()
+                .withInitialization("warm")
+                .build();
+        warmRelay.asFlowable().blockingFirst();
+    }
+
+    @Benchmark
+    public String warmRead() {
+        return warmRelay.asFlowable().blockingFirst();
+    }
+
+    @Benchmark
+    public String coldInitialization() {
+        return builder()
+                .withInitialization(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        return "cold";
+                    }
+                })
+                .build()
+                .asFlowable()
+                .blockingFirst();
+    }
+
+    private StatefulRelay.Builder<String> builder() {
+        Scheduler scheduler = "io".equals(schedulers) ? Schedulers.io() : Schedulers.trampoline();
+        return new StatefulRelay.Builder<String>()
+                .withSubscribeScheduler(scheduler)
+                .withUpdateScheduler(scheduler)
+                .withDeliveryScheduler(scheduler);
+    }
+}
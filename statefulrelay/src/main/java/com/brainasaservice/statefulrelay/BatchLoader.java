@@ -0,0 +1,126 @@
+package com.brainasaservice.statefulrelay;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Maybe;
+import io.reactivex.MaybeSource;
+import io.reactivex.Scheduler;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.functions.Function;
+import io.reactivex.subjects.MaybeSubject;
+
+/**
+ * Coalesces the loads of many keys into calls of a bulk loader. Keys requested within the batching
+ * window, or until the maximum batch size is reached, are loaded by a single call and the result
+ * is fanned out to every requesting relay.
+ */
+
+final class BatchLoader<K, T> {
+    private final Function<Set<K>, Maybe<Map<K, T>>> loader;
+
+    private final long window;
+
+    private final int maxBatchSize;
+
+    private final Scheduler scheduler;
+
+    /**
+     * Batch collecting keys, null if no batch is open. Guarded by this.
+     */
+    private Batch<K, T> open;
+
+    /**
+     * @param loader       Loads the values of a set of keys
+     * @param window       Batching window in milliseconds
+     * @param maxBatchSize Maximum number of keys per call
+     * @param scheduler    Scheduler the batching window is timed on
+     */
+    BatchLoader(Function<Set<K>, Maybe<Map<K, T>>> loader, long window, int maxBatchSize, Scheduler scheduler) {
+        this.loader = loader;
+        this.window = window;
+        this.maxBatchSize = maxBatchSize;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * @return Maybe emitting the key's value once its batch has been loaded, empty if the bulk
+     * loader did not return a value for the key.
+     */
+    Maybe<T> load(final K key) {
+        return Maybe.defer(new Callable<MaybeSource<T>>() {
+            @Override
+            public MaybeSource<T> call() throws Exception {
+                return enqueue(key).flatMap(new Function<Map<K, T>, MaybeSource<T>>() {
+                    @Override
+                    public MaybeSource<T> apply(@NonNull Map<K, T> values) throws Exception {
+                        T value = values.get(key);
+                        return value != null ? Maybe.just(value) : Maybe.<T>empty();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Adds the key to the open batch, opening a new one if needed.
+     *
+     * @return Result of the batch the key has been added to.
+     */
+    private Maybe<Map<K, T>> enqueue(K key) {
+        final Batch<K, T> batch;
+        boolean full;
+        boolean opened = false;
+        synchronized (this) {
+            if (open == null) {
+                open = new Batch<>();
+                opened = true;
+            }
+            batch = open;
+            batch.keys.add(key);
+            full = batch.keys.size() >= maxBatchSize;
+            if (full) {
+                open = null;
+            }
+        }
+
+        if (full) {
+            dispatch(batch);
+        } else if (opened) {
+            scheduler.scheduleDirect(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (BatchLoader.this) {
+                        if (open != batch) {
+                            // Dispatched because it was full.
+                            return;
+                        }
+                        open = null;
+                    }
+                    dispatch(batch);
+                }
+            }, window, TimeUnit.MILLISECONDS);
+        }
+        return batch.result;
+    }
+
+    private void dispatch(Batch<K, T> batch) {
+        Maybe<Map<K, T>> values;
+        try {
+            values = loader.apply(Collections.unmodifiableSet(batch.keys));
+        } catch (Exception e) {
+            values = Maybe.error(e);
+        }
+        values.subscribe(batch.result);
+    }
+
+    private static final class Batch<K, T> {
+        final Set<K> keys = new LinkedHashSet<>();
+
+        final MaybeSubject<Map<K, T>> result = MaybeSubject.create();
+    }
+}
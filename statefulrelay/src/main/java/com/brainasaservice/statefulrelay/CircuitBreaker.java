@@ -0,0 +1,355 @@
+package com.brainasaservice.statefulrelay;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Maybe;
+import io.reactivex.MaybeSource;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.functions.Action;
+import io.reactivex.functions.Consumer;
+
+/**
+ * Circuit breaker guarding the initializers and updaters of relays, which may share one instance
+ * if they call the same backend.
+ * <p>
+ * While CLOSED, the outcomes of the last calls are recorded in a sliding window. Once the failure
+ * rate or the rate of slow calls reaches its threshold the breaker OPENs and rejects all calls;
+ * rejected calls complete empty, so relays keep serving their cached values. After the open
+ * duration the breaker is HALF_OPEN and permits a few probe calls, which close it again if their
+ * rates are below the thresholds and reopen it otherwise.
+ */
+
+public class CircuitBreaker {
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    public static class Builder {
+
+        /**
+         * Failure rate in percent at which the breaker opens.
+         */
+        private float failureRateThreshold = 50;
+
+        /**
+         * Duration in nanoseconds from which on calls count as slow, 0 to disable.
+         */
+        private long slowCallDuration = 0;
+
+        /**
+         * Slow call rate in percent at which the breaker opens.
+         */
+        private float slowCallRateThreshold = 100;
+
+        /**
+         * Number of recorded call outcomes.
+         */
+        private int windowSize = 100;
+
+        /**
+         * Number of recorded calls required before rates are evaluated.
+         */
+        private int minimumCalls = 10;
+
+        /**
+         * Time in nanoseconds the breaker stays open.
+         */
+        private long openDuration = TimeUnit.SECONDS.toNanos(60);
+
+        /**
+         * Number of probe calls permitted while half-open.
+         */
+        private int halfOpenCalls = 3;
+
+        /**
+         * Time source measuring call durations and the open duration.
+         */
+        private Ticker ticker = Ticker.SYSTEM;
+
+        /**
+         * @param percent Failure rate in percent at which the breaker opens
+         * @return
+         */
+        public Builder withFailureRateThreshold(float percent) {
+            this.failureRateThreshold = percent;
+            return this;
+        }
+
+        /**
+         * @param duration Duration from which on calls count as slow
+         * @param timeUnit TimeUnit of the duration
+         * @param percent  Slow call rate in percent at which the breaker opens
+         * @return
+         */
+        public Builder withSlowCallThreshold(long duration, TimeUnit timeUnit, float percent) {
+            this.slowCallDuration = timeUnit.toNanos(duration);
+            this.slowCallRateThreshold = percent;
+            return this;
+        }
+
+        /**
+         * @param windowSize   Number of recorded call outcomes
+         * @param minimumCalls Number of recorded calls required before rates are evaluated
+         * @return
+         */
+        public Builder withSlidingWindow(int windowSize, int minimumCalls) {
+            if (windowSize < 1 || minimumCalls < 1 || minimumCalls > windowSize) {
+                throw new IllegalArgumentException("Expected 0 < minimumCalls <= windowSize, got "
+                        + minimumCalls + " and " + windowSize);
+            }
+            this.windowSize = windowSize;
+            this.minimumCalls = minimumCalls;
+            return this;
+        }
+
+        /**
+         * @param duration Time the breaker stays open before probing the backend
+         * @param timeUnit TimeUnit of the duration
+         * @return
+         */
+        public Builder withOpenDuration(long duration, TimeUnit timeUnit) {
+            this.openDuration = timeUnit.toNanos(duration);
+            return this;
+        }
+
+        /**
+         * @param halfOpenCalls Number of probe calls permitted while half-open
+         * @return
+         */
+        public Builder withHalfOpenCalls(int halfOpenCalls) {
+            this.halfOpenCalls = Math.max(1, halfOpenCalls);
+            return this;
+        }
+
+        /**
+         * @param ticker Time source, defaults to {@link Ticker#SYSTEM}
+         * @return
+         */
+        public Builder withTicker(Ticker ticker) {
+            this.ticker = ticker;
+            return this;
+        }
+
+        /**
+         * @return CircuitBreaker instance
+         */
+        public CircuitBreaker build() {
+            return new CircuitBreaker(this);
+        }
+    }
+
+    private static final int FAILED = 1;
+
+    private static final int SLOW = 1 << 1;
+
+    private final float failureRateThreshold;
+
+    private final long slowCallDuration;
+
+    private final float slowCallRateThreshold;
+
+    private final int minimumCalls;
+
+    private final long openDuration;
+
+    private final int halfOpenCalls;
+
+    private final Ticker ticker;
+
+    // All following fields are guarded by this.
+
+    private State state = State.CLOSED;
+
+    private long openedAt;
+
+    /**
+     * Ring buffer of call outcomes.
+     */
+    private final int[] outcomes;
+
+    private int next;
+
+    private int calls;
+
+    private int failures;
+
+    private int slowCalls;
+
+    /**
+     * Probe calls handed out while half-open.
+     */
+    private int permitted;
+
+    CircuitBreaker(Builder builder) {
+        this.failureRateThreshold = builder.failureRateThreshold;
+        this.slowCallDuration = builder.slowCallDuration;
+        this.slowCallRateThreshold = builder.slowCallRateThreshold;
+        this.minimumCalls = builder.minimumCalls;
+        this.openDuration = builder.openDuration;
+        this.halfOpenCalls = builder.halfOpenCalls;
+        this.ticker = builder.ticker;
+        this.outcomes = new int[builder.windowSize];
+    }
+
+    /**
+     * @return Current state of the breaker
+     */
+    public synchronized State getState() {
+        if (state == State.OPEN && ticker.read() - openedAt >= openDuration) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    /**
+     * Guards the call with the breaker. While the breaker rejects calls the returned Maybe
+     * completes empty without subscribing to the call.
+     */
+    <T> Maybe<T> decorate(final Maybe<T> call) {
+        return Maybe.defer(new Callable<MaybeSource<T>>() {
+            @Override
+            public MaybeSource<T> call() throws Exception {
+                if (!tryAcquire()) {
+                    return Maybe.empty();
+                }
+                final long start = ticker.read();
+                final boolean[] recorded = {false};
+                return call
+                        .doOnSuccess(new Consumer<T>() {
+                            @Override
+                            public void accept(@NonNull T t) throws Exception {
+                                recorded[0] = true;
+                                record(start, false);
+                            }
+                        })
+                        .doOnComplete(new Action() {
+                            @Override
+                            public void run() throws Exception {
+                                recorded[0] = true;
+                                record(start, false);
+                            }
+                        })
+                        .doOnError(new Consumer<Throwable>() {
+                            @Override
+                            public void accept(@NonNull Throwable throwable) throws Exception {
+                                recorded[0] = true;
+                                record(start, true);
+                            }
+                        })
+                        .doOnDispose(new Action() {
+                            @Override
+                            public void run() throws Exception {
+                                if (!recorded[0]) {
+                                    release();
+                                }
+                            }
+                        });
+            }
+        });
+    }
+
+    /**
+     * @return True if a call is permitted.
+     */
+    synchronized boolean tryAcquire() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (ticker.read() - openedAt < openDuration) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                reset();
+                permitted = 0;
+                return tryAcquireProbe();
+            default:
+                return tryAcquireProbe();
+        }
+    }
+
+    /**
+     * @return True if a probe call is permitted while half-open.
+     */
+    private boolean tryAcquireProbe() {
+        if (permitted < halfOpenCalls) {
+            permitted++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns a permit of a call which has been cancelled before completing.
+     */
+    private synchronized void release() {
+        if (state == State.HALF_OPEN && permitted > 0) {
+            permitted--;
+        }
+    }
+
+    private synchronized void record(long start, boolean failed) {
+        if (state == State.OPEN) {
+            // Completed after the breaker has opened.
+            return;
+        }
+        int outcome = failed ? FAILED : 0;
+        if (slowCallDuration > 0 && ticker.read() - start >= slowCallDuration) {
+            outcome |= SLOW;
+        }
+        if (calls == outcomes.length) {
+            remove(outcomes[next]);
+        } else {
+            calls++;
+        }
+        outcomes[next] = outcome;
+        next = (next + 1) % outcomes.length;
+        if ((outcome & FAILED) != 0) {
+            failures++;
+        }
+        if ((outcome & SLOW) != 0) {
+            slowCalls++;
+        }
+
+        if (state == State.CLOSED) {
+            if (calls >= minimumCalls && isAboveThresholds()) {
+                open();
+            }
+        } else if (calls >= Math.min(halfOpenCalls, outcomes.length)) {
+            if (isAboveThresholds()) {
+                open();
+            } else {
+                state = State.CLOSED;
+                reset();
+            }
+        }
+    }
+
+    private boolean isAboveThresholds() {
+        return failures * 100f >= failureRateThreshold * calls
+                || (slowCallDuration > 0 && slowCalls * 100f >= slowCallRateThreshold * calls);
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = ticker.read();
+        reset();
+    }
+
+    private void remove(int outcome) {
+        if ((outcome & FAILED) != 0) {
+            failures--;
+        }
+        if ((outcome & SLOW) != 0) {
+            slowCalls--;
+        }
+    }
+
+    private void reset() {
+        next = 0;
+        calls = 0;
+        failures = 0;
+        slowCalls = 0;
+    }
+}
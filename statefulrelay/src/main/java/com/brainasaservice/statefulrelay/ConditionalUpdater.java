@@ -0,0 +1,20 @@
+package com.brainasaservice.statefulrelay;
+
+import io.reactivex.Maybe;
+
+/**
+ * Updater receiving the relay's current value and version, e.g. to issue conditional requests
+ * with an ETag.
+ */
+
+public interface ConditionalUpdater<T> {
+    /**
+     * @param current Current value of the relay, null if it has none
+     * @param version Version of the current value as returned by the last update, null if unknown
+     *                or if the current value has been invalidated and has to be replaced
+     * @return Maybe emitting the updated value and its version, or completing empty if the current
+     * value has not been modified. In that case only its TTL is renewed and nothing is emitted,
+     * unless the value has passed its hard TTL and is emitted again.
+     */
+    Maybe<Versioned<T>> update(T current, String version);
+}
@@ -0,0 +1,62 @@
+package com.brainasaservice.statefulrelay;
+
+import io.reactivex.annotations.NonNull;
+import io.reactivex.functions.Function;
+
+/**
+ * Decides whether an updated value is equivalent to the current one. Equivalent values are not
+ * emitted, subscribers are only woken by actual changes.
+ */
+
+public abstract class Equivalence<T> {
+    private static final Equivalence<Object> EQUALS = new Equivalence<Object>() {
+        @Override
+        public boolean equivalent(@NonNull Object a, @NonNull Object b) throws Exception {
+            return a.equals(b);
+        }
+    };
+
+    private static final Equivalence<Object> IDENTITY = new Equivalence<Object>() {
+        @Override
+        public boolean equivalent(@NonNull Object a, @NonNull Object b) throws Exception {
+            return a == b;
+        }
+    };
+
+    /**
+     * @return Equivalence based on {@link Object#equals(Object)}
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> Equivalence<T> equals() {
+        return (Equivalence<T>) EQUALS;
+    }
+
+    /**
+     * @return Equivalence based on reference identity
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> Equivalence<T> identity() {
+        return (Equivalence<T>) IDENTITY;
+    }
+
+    /**
+     * @param fingerprint Cheap content fingerprint, e.g. a hash or a version field
+     * @return Equivalence comparing the fingerprints of both values with
+     * {@link Object#equals(Object)}
+     */
+    public static <T> Equivalence<T> fingerprint(final Function<? super T, ?> fingerprint) {
+        return new Equivalence<T>() {
+            @Override
+            public boolean equivalent(@NonNull T a, @NonNull T b) throws Exception {
+                return fingerprint.apply(a).equals(fingerprint.apply(b));
+            }
+        };
+    }
+
+    /**
+     * @param a Current value
+     * @param b Updated value
+     * @return Whether both values are equivalent
+     */
+    public abstract boolean equivalent(@NonNull T a, @NonNull T b) throws Exception;
+}
@@ -0,0 +1,216 @@
+package com.brainasaservice.statefulrelay;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Scheduler;
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * Collapses bursts of invalidations. Relays posted to the bus are invalidated once the bus has
+ * been quiet for the debounce window, or at the latest once the batching window since the first
+ * pending post has elapsed. Any number of posts for a relay within that time result in a single
+ * invalidation, or a single update with eager refresh.
+ */
+
+public class InvalidationBus {
+    public static class Builder {
+
+        /**
+         * Quiet period in nanoseconds after the last post before pending relays are invalidated.
+         */
+        private long debounce = TimeUnit.MILLISECONDS.toNanos(50);
+
+        /**
+         * Maximum time in nanoseconds a relay stays pending while posts keep arriving.
+         */
+        private long window = TimeUnit.MILLISECONDS.toNanos(500);
+
+        /**
+         * Whether relays are updated right away instead of being invalidated.
+         */
+        private boolean eagerRefresh = false;
+
+        /**
+         * Scheduler the windows are timed on.
+         */
+        private Scheduler scheduler = Schedulers.computation();
+
+        /**
+         * Time source for the windows.
+         */
+        private Ticker ticker = Ticker.SYSTEM;
+
+        /**
+         * @param debounce Quiet period after the last post before pending relays are invalidated
+         * @param timeUnit Time unit
+         * @return
+         */
+        public Builder withDebounce(long debounce, TimeUnit timeUnit) {
+            this.debounce = timeUnit.toNanos(debounce);
+            return this;
+        }
+
+        /**
+         * @param window   Maximum time a relay stays pending while posts keep arriving
+         * @param timeUnit Time unit
+         * @return
+         */
+        public Builder withBatchingWindow(long window, TimeUnit timeUnit) {
+            this.window = timeUnit.toNanos(window);
+            return this;
+        }
+
+        /**
+         * @param eagerRefresh Update relays right away instead of only invalidating them
+         * @return
+         */
+        public Builder withEagerRefresh(boolean eagerRefresh) {
+            this.eagerRefresh = eagerRefresh;
+            return this;
+        }
+
+        /**
+         * @param scheduler Scheduler the windows are timed on
+         * @return
+         */
+        public Builder withScheduler(Scheduler scheduler) {
+            this.scheduler = scheduler;
+            return this;
+        }
+
+        /**
+         * @param ticker Time source for the windows, defaults to {@link Ticker#SYSTEM}
+         * @return
+         */
+        public Builder withTicker(Ticker ticker) {
+            this.ticker = ticker;
+            return this;
+        }
+
+        public InvalidationBus build() {
+            return new InvalidationBus(this);
+        }
+    }
+
+    private final long debounce;
+
+    private final long window;
+
+    private final boolean eagerRefresh;
+
+    private final Scheduler scheduler;
+
+    private final Ticker ticker;
+
+    /**
+     * Relays awaiting invalidation. Guarded by this.
+     */
+    private Set<StatefulRelay<?>> pending = new LinkedHashSet<>();
+
+    /**
+     * Number of flushed batches, tells timers whether their batch is still pending. Guarded by
+     * this.
+     */
+    private long flushed;
+
+    /**
+     * Ticker reading of the first pending post. Guarded by this.
+     */
+    private long firstPost;
+
+    /**
+     * Ticker reading of the last post. Guarded by this.
+     */
+    private long lastPost;
+
+    private InvalidationBus(Builder builder) {
+        this.debounce = builder.debounce;
+        this.window = Math.max(builder.window, builder.debounce);
+        this.eagerRefresh = builder.eagerRefresh;
+        this.scheduler = builder.scheduler;
+        this.ticker = builder.ticker;
+    }
+
+    /**
+     * Marks the relay for invalidation with the next flush of the bus.
+     *
+     * @param relay Relay to invalidate
+     */
+    public void post(StatefulRelay<?> relay) {
+        boolean opened;
+        long generation;
+        synchronized (this) {
+            long now = ticker.read();
+            opened = pending.isEmpty();
+            if (opened) {
+                firstPost = now;
+            }
+            lastPost = now;
+            pending.add(relay);
+            generation = flushed;
+        }
+        if (opened) {
+            scheduleFlush(generation, debounce);
+        }
+    }
+
+    /**
+     * Invalidates all pending relays right away.
+     */
+    public void flush() {
+        flush(-1);
+    }
+
+    /**
+     * @param generation Batch to flush, -1 for any
+     */
+    private void flush(long generation) {
+        Set<StatefulRelay<?>> batch;
+        synchronized (this) {
+            if (pending.isEmpty() || (generation != -1 && generation != flushed)) {
+                return;
+            }
+            batch = pending;
+            pending = new LinkedHashSet<>();
+            flushed++;
+        }
+        for (StatefulRelay<?> relay : batch) {
+            if (eagerRefresh) {
+                relay.update();
+            } else {
+                relay.invalidate();
+            }
+        }
+    }
+
+    /**
+     * @return Number of relays awaiting invalidation
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    private void scheduleFlush(final long generation, long delay) {
+        scheduler.scheduleDirect(new Runnable() {
+            @Override
+            public void run() {
+                long remaining;
+                synchronized (InvalidationBus.this) {
+                    if (flushed != generation) {
+                        // Flushed manually.
+                        return;
+                    }
+                    long due = Math.min(lastPost + debounce, firstPost + window);
+                    remaining = due - ticker.read();
+                }
+                if (remaining > 0) {
+                    scheduleFlush(generation, remaining);
+                } else {
+                    flush(generation);
+                }
+            }
+        }, delay, TimeUnit.NANOSECONDS);
+    }
+}
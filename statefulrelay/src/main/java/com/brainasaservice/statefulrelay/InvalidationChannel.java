@@ -0,0 +1,93 @@
+package com.brainasaservice.statefulrelay;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Connects an {@link InvalidationIndex} to peer processes. Invalidating a key invalidates all
+ * relays tagged with it locally and in every peer reachable through the transport. Invalidations
+ * with versions not newer than the last one seen for their key are dropped, so duplicated or
+ * reordered messages do not invalidate relays again. Versions are remembered for a bounded number
+ * of recently invalidated keys; a late duplicate for a forgotten key invalidates once more.
+ */
+
+public class InvalidationChannel implements InvalidationTransport.Listener {
+    private final InvalidationIndex index;
+
+    private final InvalidationTransport transport;
+
+    /**
+     * Latest version seen per key, locally or from peers, least recently invalidated first.
+     * Guarded by itself.
+     */
+    private final Map<String, Long> versions;
+
+    /**
+     * @param index     Index of the local relays, tagged by key
+     * @param transport Transport to the peer processes
+     */
+    public InvalidationChannel(InvalidationIndex index, InvalidationTransport transport) {
+        this(index, transport, 10000);
+    }
+
+    /**
+     * @param index       Index of the local relays, tagged by key
+     * @param transport   Transport to the peer processes
+     * @param maximumKeys Number of keys whose latest version is remembered
+     */
+    public InvalidationChannel(InvalidationIndex index, InvalidationTransport transport, final int maximumKeys) {
+        if (maximumKeys < 1) {
+            throw new IllegalArgumentException("Expected maximumKeys >= 1, got " + maximumKeys);
+        }
+        this.index = index;
+        this.transport = transport;
+        this.versions = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > maximumKeys;
+            }
+        };
+        transport.setListener(this);
+    }
+
+    /**
+     * Invalidates the key locally and publishes the invalidation to all peers.
+     *
+     * @param key     Tag of the invalidated relays
+     * @param version Version of the data which caused the invalidation
+     */
+    public void invalidate(String key, long version) {
+        if (advance(key, version)) {
+            index.invalidateTag(key);
+            transport.publish(key, version);
+        }
+    }
+
+    @Override
+    public void onInvalidation(String key, long version) {
+        if (advance(key, version)) {
+            index.invalidateTag(key);
+        }
+    }
+
+    /**
+     * @return True if the version is newer than the last one seen for the key, which it replaces.
+     */
+    private boolean advance(String key, long version) {
+        synchronized (versions) {
+            Long seen = versions.get(key);
+            if (seen != null && seen >= version) {
+                return false;
+            }
+            versions.put(key, version);
+            return true;
+        }
+    }
+
+    /**
+     * Closes the underlying transport.
+     */
+    public void close() {
+        transport.close();
+    }
+}
@@ -0,0 +1,111 @@
+package com.brainasaservice.statefulrelay;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Maps tags to relays, so all relays related to e.g. one account can be invalidated at once in time
+ * proportional to the tagged set. Relays are held weakly and dropped from the index once they are
+ * garbage collected. Can be shared by any number of relays.
+ */
+
+public class InvalidationIndex {
+    private final ConcurrentMap<Object, Set<Entry>> tags = new ConcurrentHashMap<>();
+
+    private final ReferenceQueue<StatefulRelay<?>> collected = new ReferenceQueue<>();
+
+    /**
+     * Weak reference to a tagged relay, remembering its tags for cleanup.
+     */
+    private static final class Entry extends WeakReference<StatefulRelay<?>> {
+        private final Object[] tags;
+
+        Entry(StatefulRelay<?> relay, Object[] tags, ReferenceQueue<StatefulRelay<?>> queue) {
+            super(relay, queue);
+            this.tags = tags;
+        }
+    }
+
+    /**
+     * @param relay Relay to tag
+     * @param tags  Tags of the relay, compared with {@link Object#equals(Object)}
+     */
+    public void tag(StatefulRelay<?> relay, Object... tags) {
+        purge();
+        Entry entry = new Entry(relay, tags.clone(), collected);
+        for (Object tag : entry.tags) {
+            for (; ; ) {
+                Set<Entry> entries = this.tags.get(tag);
+                if (entries == null) {
+                    Set<Entry> created = Collections.newSetFromMap(new ConcurrentHashMap<Entry, Boolean>());
+                    entries = this.tags.putIfAbsent(tag, created);
+                    if (entries == null) {
+                        entries = created;
+                    }
+                }
+                entries.add(entry);
+                // Retry if the set was removed as empty concurrently.
+                if (this.tags.get(tag) == entries) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Invalidates all live relays carrying the tag.
+     *
+     * @param tag Tag to invalidate
+     * @return Number of invalidated relays
+     */
+    public int invalidateTag(Object tag) {
+        purge();
+        Set<Entry> entries = tags.get(tag);
+        if (entries == null) {
+            return 0;
+        }
+        int invalidated = 0;
+        for (Entry entry : entries) {
+            StatefulRelay<?> relay = entry.get();
+            if (relay != null) {
+                relay.invalidate();
+                invalidated++;
+            }
+        }
+        return invalidated;
+    }
+
+    /**
+     * @return Number of distinct tags in the index
+     */
+    public int size() {
+        purge();
+        return tags.size();
+    }
+
+    /**
+     * Removes entries of garbage collected relays and tags without relays.
+     */
+    private void purge() {
+        Entry entry;
+        while ((entry = (Entry) collected.poll()) != null) {
+            for (Object tag : entry.tags) {
+                Set<Entry> entries = tags.get(tag);
+                if (entries != null) {
+                    entries.remove(entry);
+                    if (entries.isEmpty() && tags.remove(tag, entries) && !entries.isEmpty()) {
+                        // A relay was tagged concurrently after the check, restore its entries.
+                        Set<Entry> current = tags.putIfAbsent(tag, entries);
+                        if (current != null) {
+                            current.addAll(entries);
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.brainasaservice.statefulrelay;
+
+/**
+ * Carries invalidations between processes, each holding its own relays for the same data.
+ */
+
+public interface InvalidationTransport {
+    /**
+     * Receives invalidations published by peers.
+     */
+    interface Listener {
+        /**
+         * @param key     Key of the invalidated relays
+         * @param version Version of the data which caused the invalidation
+         */
+        void onInvalidation(String key, long version);
+    }
+
+    /**
+     * Broadcasts an invalidation to all peers. Transports may batch invalidations.
+     *
+     * @param key     Key of the invalidated relays
+     * @param version Version of the data which caused the invalidation
+     */
+    void publish(String key, long version);
+
+    /**
+     * @param listener Listener receiving the invalidations of peers
+     */
+    void setListener(Listener listener);
+
+    /**
+     * Releases the transport's resources, nothing is sent or received afterwards.
+     */
+    void close();
+}
@@ -0,0 +1,168 @@
+package com.brainasaservice.statefulrelay;
+
+import java.util.concurrent.TimeoutException;
+
+import io.reactivex.Maybe;
+import io.reactivex.Scheduler;
+import io.reactivex.functions.Consumer;
+
+/**
+ * Relay owned by a {@link StatefulRelayCache}. Loads its value through the cache's per-key
+ * functions and shares all other configuration with the cache's template relay, so a relay only
+ * costs its own state and key.
+ */
+
+class KeyedRelay<K, T> extends StatefulRelay<T> {
+    private final K key;
+
+    private final StatefulRelayCache<K, T> cache;
+
+    KeyedRelay(K key, StatefulRelayCache<K, T> cache) {
+        this.key = key;
+        this.cache = cache;
+    }
+
+    K getKey() {
+        return key;
+    }
+
+    private StatefulRelay<T> template() {
+        return cache.template;
+    }
+
+    @Override
+    Maybe<T> maybeUpdate() {
+        return cache.load(cache.updater, key);
+    }
+
+    @Override
+    Maybe<T> maybeInitialValue() {
+        return cache.load(cache.initialization, key);
+    }
+
+    @Override
+    Consumer<Throwable> initializationErrorConsumer() {
+        return template().initializationErrorConsumer();
+    }
+
+    @Override
+    Consumer<Throwable> updateErrorConsumer() {
+        return template().updateErrorConsumer();
+    }
+
+    @Override
+    Invalidator<T> getInvalidator() {
+        return template().getInvalidator();
+    }
+
+    @Override
+    long getTTL() {
+        return template().getTTL();
+    }
+
+    @Override
+    float getTTLJitter() {
+        return template().getTTLJitter();
+    }
+
+    @Override
+    double getEarlyExpirationBeta() {
+        return template().getEarlyExpirationBeta();
+    }
+
+    @Override
+    long getHardTTL() {
+        return template().getHardTTL();
+    }
+
+    @Override
+    long getUpdateTimeout() {
+        return template().getUpdateTimeout();
+    }
+
+    @Override
+    Consumer<TimeoutException> updateTimeoutConsumer() {
+        return template().updateTimeoutConsumer();
+    }
+
+    @Override
+    long getErrorTTL() {
+        return template().getErrorTTL();
+    }
+
+    @Override
+    long getRefreshAheadLead() {
+        return template().getRefreshAheadLead();
+    }
+
+    @Override
+    Scheduler getSubscribeScheduler() {
+        return template().getSubscribeScheduler();
+    }
+
+    @Override
+    Scheduler getUpdateScheduler() {
+        return template().getUpdateScheduler();
+    }
+
+    @Override
+    Scheduler getDeliveryScheduler() {
+        return template().getDeliveryScheduler();
+    }
+
+    @Override
+    boolean isMinimalThreadHops() {
+        return template().isMinimalThreadHops();
+    }
+
+    @Override
+    Ticker getTicker() {
+        return template().getTicker();
+    }
+
+    @Override
+    RetryPolicy getRetryPolicy() {
+        return template().getRetryPolicy();
+    }
+
+    @Override
+    CircuitBreaker getCircuitBreaker() {
+        return template().getCircuitBreaker();
+    }
+
+    @Override
+    UpdateRateLimiter getRateLimiter() {
+        return template().getRateLimiter();
+    }
+
+    @Override
+    UpdateBulkhead getBulkhead() {
+        return template().getBulkhead();
+    }
+
+    @Override
+    Equivalence<T> getEquivalence() {
+        return template().getEquivalence();
+    }
+
+    @Override
+    TimingWheel getTimingWheel() {
+        return template().getTimingWheel();
+    }
+
+    @Override
+    boolean isSingleFlight() {
+        return template().isSingleFlight();
+    }
+
+    @Override
+    boolean isSubscriberTracked() {
+        // Subscribed relays are pinned by the eviction policy.
+        return cache.eviction != null;
+    }
+
+    @Override
+    void onSubscribersChanged() {
+        cache.onSubscribersChanged(this);
+    }
+}
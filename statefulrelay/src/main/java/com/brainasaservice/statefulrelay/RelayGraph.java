@@ -0,0 +1,245 @@
+package com.brainasaservice.statefulrelay;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.annotations.NonNull;
+import io.reactivex.functions.Action;
+import io.reactivex.functions.Consumer;
+
+/**
+ * Dependencies between relays whose values are derived from other relays. Once a relay has been
+ * updated with a new value, all relays depending on it directly or transitively are invalidated,
+ * or recomputed, in topological order. Each affected relay is handled once per update, even if it
+ * is reachable through several paths.
+ */
+
+public class RelayGraph {
+    public enum Mode {
+        /**
+         * Affected relays are invalidated and updated on their next access.
+         */
+        INVALIDATE,
+
+        /**
+         * Affected relays are updated right away, each once all of its affected upstream relays
+         * have finished updating. Updates in flight are awaited and followed by a fresh one, which
+         * requires single-flight updates for dependent relays.
+         */
+        RECOMPUTE
+    }
+
+    private final Mode mode;
+
+    /**
+     * Relays depending on a relay. Guarded by this.
+     */
+    private final Map<StatefulRelay<?>, Set<StatefulRelay<?>>> downstream = new HashMap<>();
+
+    /**
+     * Relays a relay depends on. Guarded by this.
+     */
+    private final Map<StatefulRelay<?>, Set<StatefulRelay<?>>> upstream = new HashMap<>();
+
+    /**
+     * Relays being recomputed, their own updates do not propagate again.
+     */
+    private final Set<StatefulRelay<?>> recomputing =
+            Collections.newSetFromMap(new ConcurrentHashMap<StatefulRelay<?>, Boolean>());
+
+    public RelayGraph() {
+        this(Mode.INVALIDATE);
+    }
+
+    /**
+     * @param mode Whether affected relays are invalidated or recomputed
+     */
+    public RelayGraph(Mode mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * Declares that the relay's value is derived from the upstream relays' values.
+     *
+     * @param relay     Dependent relay
+     * @param upstreams Relays the dependent relay derives its value from
+     * @throws IllegalArgumentException if a dependency would create a cycle, a relay already
+     *                                  belongs to another graph, or a relay recomputed by the
+     *                                  graph has no single-flight updates
+     */
+    public synchronized void dependsOn(StatefulRelay<?> relay, StatefulRelay<?>... upstreams) {
+        if (mode == Mode.RECOMPUTE && !relay.isSingleFlight()) {
+            throw new IllegalArgumentException("Recomputed relays require single-flight updates");
+        }
+        attach(relay);
+        for (StatefulRelay<?> up : upstreams) {
+            if (up == relay || collectDownstream(relay).contains(up)) {
+                throw new IllegalArgumentException("Dependency cycle");
+            }
+            attach(up);
+            edges(downstream, up).add(relay);
+            edges(upstream, relay).add(up);
+        }
+    }
+
+    /**
+     * Removes the relay and all of its dependencies from the graph.
+     *
+     * @param relay Relay to remove
+     */
+    public synchronized void remove(StatefulRelay<?> relay) {
+        Set<StatefulRelay<?>> ups = upstream.remove(relay);
+        if (ups != null) {
+            for (StatefulRelay<?> up : ups) {
+                downstream.get(up).remove(relay);
+            }
+        }
+        Set<StatefulRelay<?>> downs = downstream.remove(relay);
+        if (downs != null) {
+            for (StatefulRelay<?> down : downs) {
+                upstream.get(down).remove(relay);
+            }
+        }
+        relay.setGraph(null);
+    }
+
+    /**
+     * Propagates a new value of the relay to all relays depending on it.
+     */
+    void onUpdated(StatefulRelay<?> relay) {
+        if (recomputing.contains(relay)) {
+            // Dependents are handled by the propagation recomputing the relay.
+            return;
+        }
+
+        final List<StatefulRelay<?>> order;
+        final Map<StatefulRelay<?>, AtomicInteger> inputs = new HashMap<>();
+        final Map<StatefulRelay<?>, List<StatefulRelay<?>>> outputs = new HashMap<>();
+        synchronized (this) {
+            order = topologicalOrder(relay);
+            if (mode == Mode.RECOMPUTE) {
+                Set<StatefulRelay<?>> affected = new HashSet<>(order);
+                for (StatefulRelay<?> down : order) {
+                    int count = 0;
+                    for (StatefulRelay<?> up : upstream.get(down)) {
+                        if (affected.contains(up)) {
+                            count++;
+                        }
+                    }
+                    inputs.put(down, new AtomicInteger(count));
+                    List<StatefulRelay<?>> affectedDowns = new ArrayList<>();
+                    Set<StatefulRelay<?>> downs = downstream.get(down);
+                    if (downs != null) {
+                        affectedDowns.addAll(downs);
+                    }
+                    outputs.put(down, affectedDowns);
+                }
+            }
+        }
+
+        if (mode == Mode.INVALIDATE) {
+            for (StatefulRelay<?> down : order) {
+                down.invalidate();
+            }
+            return;
+        }
+
+        // Collect the roots first, recomputing them may release further relays synchronously.
+        List<StatefulRelay<?>> roots = new ArrayList<>();
+        for (StatefulRelay<?> down : order) {
+            if (inputs.get(down).get() == 0) {
+                roots.add(down);
+            }
+        }
+        recomputing.addAll(order);
+        for (StatefulRelay<?> root : roots) {
+            recompute(root, inputs, outputs);
+        }
+    }
+
+    /**
+     * Updates the relay, then its dependents whose affected upstream relays have all finished.
+     */
+    private void recompute(final StatefulRelay<?> relay,
+                           final Map<StatefulRelay<?>, AtomicInteger> inputs,
+                           final Map<StatefulRelay<?>, List<StatefulRelay<?>>> outputs) {
+        final Action done = new Action() {
+            @Override
+            public void run() throws Exception {
+                recomputing.remove(relay);
+                for (StatefulRelay<?> down : outputs.get(relay)) {
+                    if (inputs.get(down).decrementAndGet() == 0) {
+                        recompute(down, inputs, outputs);
+                    }
+                }
+            }
+        };
+        relay.updateFresh().subscribe(new Consumer<Object>() {
+            @Override
+            public void accept(@NonNull Object o) throws Exception {
+                done.run();
+            }
+        }, new Consumer<Throwable>() {
+            @Override
+            public void accept(@NonNull Throwable throwable) throws Exception {
+                // Dependents are recomputed from the values available.
+                done.run();
+            }
+        }, done);
+    }
+
+    /**
+     * @return Relays depending on the relay directly or transitively, in topological order
+     */
+    private List<StatefulRelay<?>> topologicalOrder(StatefulRelay<?> relay) {
+        List<StatefulRelay<?>> postOrder = new ArrayList<>();
+        visit(relay, new HashSet<StatefulRelay<?>>(), postOrder);
+        postOrder.remove(postOrder.size() - 1);
+        Collections.reverse(postOrder);
+        return postOrder;
+    }
+
+    private void visit(StatefulRelay<?> relay, Set<StatefulRelay<?>> visited, List<StatefulRelay<?>> postOrder) {
+        if (!visited.add(relay)) {
+            return;
+        }
+        Set<StatefulRelay<?>> downs = downstream.get(relay);
+        if (downs != null) {
+            for (StatefulRelay<?> down : downs) {
+                visit(down, visited, postOrder);
+            }
+        }
+        postOrder.add(relay);
+    }
+
+    private Set<StatefulRelay<?>> collectDownstream(StatefulRelay<?> relay) {
+        Set<StatefulRelay<?>> visited = new LinkedHashSet<>();
+        visit(relay, visited, new ArrayList<StatefulRelay<?>>());
+        return visited;
+    }
+
+    private void attach(StatefulRelay<?> relay) {
+        RelayGraph graph = relay.getGraph();
+        if (graph != null && graph != this) {
+            throw new IllegalArgumentException("Relay already belongs to another graph");
+        }
+        relay.setGraph(this);
+    }
+
+    private static Set<StatefulRelay<?>> edges(Map<StatefulRelay<?>, Set<StatefulRelay<?>>> edges, StatefulRelay<?> relay) {
+        Set<StatefulRelay<?>> set = edges.get(relay);
+        if (set == null) {
+            set = new LinkedHashSet<>();
+            edges.put(relay, set);
+        }
+        return set;
+    }
+}
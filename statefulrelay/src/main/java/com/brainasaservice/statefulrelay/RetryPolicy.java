@@ -0,0 +1,151 @@
+package com.brainasaservice.statefulrelay;
+
+import org.reactivestreams.Publisher;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Flowable;
+import io.reactivex.Scheduler;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.functions.Function;
+import io.reactivex.functions.Predicate;
+
+/**
+ * Retries failed updates with exponential backoff and full jitter. The n-th retry waits a random
+ * time between 0 and {@code min(maxBackoff, initialBackoff * multiplier^(n - 1))}. Waiting is done
+ * with timers, no thread is blocked.
+ */
+
+public class RetryPolicy {
+    public static class Builder {
+
+        /**
+         * Maximum number of attempts including the first one.
+         */
+        private int maxAttempts = 3;
+
+        /**
+         * Upper bound of the first backoff in milliseconds.
+         */
+        private long initialBackoff = 100;
+
+        /**
+         * Upper bound of any backoff in milliseconds.
+         */
+        private long maxBackoff = 10000;
+
+        /**
+         * Growth factor of the backoff bound per retry.
+         */
+        private double multiplier = 2;
+
+        /**
+         * Decides whether an error is retried, retries all errors by default.
+         */
+        private Predicate<Throwable> retryable = new Predicate<Throwable>() {
+            @Override
+            public boolean test(@NonNull Throwable throwable) throws Exception {
+                return true;
+            }
+        };
+
+        /**
+         * @param maxAttempts Maximum number of attempts including the first one
+         * @return
+         */
+        public Builder withMaxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * @param initialBackoff Upper bound of the first backoff
+         * @param maxBackoff     Upper bound of any backoff
+         * @param timeUnit       TimeUnit of both backoffs
+         * @return
+         */
+        public Builder withBackoff(long initialBackoff, long maxBackoff, TimeUnit timeUnit) {
+            this.initialBackoff = timeUnit.toMillis(initialBackoff);
+            this.maxBackoff = timeUnit.toMillis(maxBackoff);
+            return this;
+        }
+
+        /**
+         * @param multiplier Growth factor of the backoff bound per retry
+         * @return
+         */
+        public Builder withMultiplier(double multiplier) {
+            this.multiplier = multiplier;
+            return this;
+        }
+
+        /**
+         * @param retryable Decides whether an error is retried
+         * @return
+         */
+        public Builder withRetryable(Predicate<Throwable> retryable) {
+            this.retryable = retryable;
+            return this;
+        }
+
+        /**
+         * @return RetryPolicy instance
+         */
+        public RetryPolicy build() {
+            return new RetryPolicy(this);
+        }
+    }
+
+    private final int maxAttempts;
+
+    private final long initialBackoff;
+
+    private final long maxBackoff;
+
+    private final double multiplier;
+
+    private final Predicate<Throwable> retryable;
+
+    private final Random random = new Random();
+
+    RetryPolicy(Builder builder) {
+        this.maxAttempts = builder.maxAttempts;
+        this.initialBackoff = builder.initialBackoff;
+        this.maxBackoff = builder.maxBackoff;
+        this.multiplier = builder.multiplier;
+        this.retryable = builder.retryable;
+    }
+
+    /**
+     * @param retry Number of the retry, starting at 1
+     * @return Randomized backoff in milliseconds before the retry.
+     */
+    long backoff(int retry) {
+        double bound = Math.min(maxBackoff, initialBackoff * Math.pow(multiplier, retry - 1));
+        return (long) (random.nextDouble() * bound);
+    }
+
+    /**
+     * @param scheduler Scheduler the backoff timers run on
+     * @return Handler for {@code retryWhen} applying this policy.
+     */
+    Function<Flowable<Throwable>, Publisher<?>> toHandler(final Scheduler scheduler) {
+        return new Function<Flowable<Throwable>, Publisher<?>>() {
+            @Override
+            public Publisher<?> apply(@NonNull Flowable<Throwable> errors) throws Exception {
+                // Errors of one subscription arrive sequentially.
+                final int[] attempts = {1};
+                return errors.flatMap(new Function<Throwable, Publisher<Long>>() {
+                    @Override
+                    public Publisher<Long> apply(@NonNull Throwable throwable) throws Exception {
+                        if (attempts[0] >= maxAttempts || !retryable.test(throwable)) {
+                            return Flowable.error(throwable);
+                        }
+                        return Flowable.timer(backoff(attempts[0]++), TimeUnit.MILLISECONDS, scheduler);
+                    }
+                });
+            }
+        };
+    }
+}
@@ -6,21 +6,48 @@ import org.reactivestreams.Subscription;
 
 import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import io.reactivex.BackpressureStrategy;
 import io.reactivex.Flowable;
 import io.reactivex.Maybe;
+import io.reactivex.MaybeEmitter;
+import io.reactivex.MaybeOnSubscribe;
+import io.reactivex.MaybeSource;
+import io.reactivex.Scheduler;
 import io.reactivex.annotations.NonNull;
 import io.reactivex.disposables.Disposable;
 import io.reactivex.functions.Action;
 import io.reactivex.functions.Consumer;
+import io.reactivex.functions.Function;
+import io.reactivex.functions.Predicate;
 import io.reactivex.schedulers.Schedulers;
+import io.reactivex.subjects.MaybeSubject;
 
 /**
  * Created by Damian on 06.05.2017.
  */
 
 public abstract class StatefulRelay<T> {
+    /**
+     * Update timeout in milliseconds for relays which do not set their own, 0 for none.
+     */
+    private static volatile long defaultUpdateTimeout = 0;
+
+    /**
+     * Sets the update timeout of all relays built afterwards without an explicit one. Relays
+     * which have already been built keep the default of their creation.
+     *
+     * @param timeout  Update timeout, set to 0 to disable
+     * @param timeUnit TimeUnit of the timeout
+     */
+    public static void setDefaultUpdateTimeout(long timeout, TimeUnit timeUnit) {
+        defaultUpdateTimeout = timeUnit.toMillis(timeout);
+    }
+
     public static class Builder<T> {
 
         /**
@@ -33,6 +60,26 @@ public abstract class StatefulRelay<T> {
          */
         private Maybe<T> updater;
 
+        /**
+         * Updater receiving the current value and version, replaces the updater if set.
+         */
+        private ConditionalUpdater<T> conditionalUpdater;
+
+        /**
+         * Suppresses updated values equivalent to the current one, disabled by default.
+         */
+        private Equivalence<T> equivalence;
+
+        /**
+         * Index the relay is tagged in, if any.
+         */
+        private InvalidationIndex invalidationIndex;
+
+        /**
+         * Tags of the relay within the invalidation index.
+         */
+        private Object[] tags;
+
         /**
          * Invalidator instance used to invalidate the relay's value.
          */
@@ -43,6 +90,101 @@ public abstract class StatefulRelay<T> {
          */
         private long timeToLive = 0;
 
+        /**
+         * Hard time to live in milliseconds, values older than this are not served.
+         */
+        private long hardTimeToLive = 0;
+
+        /**
+         * Fraction by which the TTL of every value is randomly shortened.
+         */
+        private float ttlJitter = 0;
+
+        /**
+         * XFetch beta, 0 to disable probabilistic early expiration.
+         */
+        private double earlyExpirationBeta = 0;
+
+        /**
+         * Update timeout in milliseconds, negative to use the default update timeout.
+         */
+        private long updateTimeout = -1;
+
+        /**
+         * Default implementation for the update timeout consumer.
+         */
+        private Consumer<TimeoutException> updateTimeoutConsumer = new Consumer<TimeoutException>() {
+            @Override
+            public void accept(TimeoutException exception) throws Exception {
+
+            }
+        };
+
+        /**
+         * Time in milliseconds a failed initialization or update suppresses further updates.
+         */
+        private long errorTimeToLive = 0;
+
+        /**
+         * Lead time in milliseconds before the TTL elapses at which the value is refreshed.
+         */
+        private long refreshAheadLead = 0;
+
+        /**
+         * Scheduler subscriptions to the relay are made on.
+         */
+        private Scheduler subscribeScheduler = Schedulers.io();
+
+        /**
+         * Scheduler initializations and updates are executed on.
+         */
+        private Scheduler updateScheduler = Schedulers.io();
+
+        /**
+         * Scheduler initialized and updated values are delivered to the relay on.
+         */
+        private Scheduler deliveryScheduler = Schedulers.io();
+
+        /**
+         * Skip the hop to the delivery scheduler.
+         */
+        private boolean minimalThreadHops = false;
+
+        /**
+         * Time source for TTL bookkeeping.
+         */
+        private Ticker ticker = Ticker.SYSTEM;
+
+        /**
+         * Retry policy for failed updates, no retries by default.
+         */
+        private RetryPolicy retryPolicy;
+
+        /**
+         * Circuit breaker guarding initialization and updates.
+         */
+        private CircuitBreaker circuitBreaker;
+
+        /**
+         * Rate limiter shared with other relays.
+         */
+        private UpdateRateLimiter rateLimiter;
+
+        /**
+         * Bounded executor for updates.
+         */
+        private UpdateBulkhead bulkhead;
+
+        /**
+         * Timing wheel tracking refresh-ahead deadlines, shared with other relays.
+         */
+        private TimingWheel timingWheel;
+
+        /**
+         * Share in-flight updates between all concurrent callers.
+         */
+        private boolean singleFlight = false;
+
         /**
          * Default implementation for the update error consumer.
          */
@@ -82,6 +224,176 @@ public abstract class StatefulRelay<T> {
             return this;
         }
 
+        /**
+         * Shortens the TTL of every value by a random fraction of up to {@code jitter}, so relays
+         * updated at the same time do not expire at the same instant.
+         *
+         * @param jitter Maximum fraction of the TTL to cut off, between 0 and 1
+         * @return
+         */
+        public Builder<T> withTTLJitter(float jitter) {
+            if (jitter < 0 || jitter > 1) {
+                throw new IllegalArgumentException("Expected 0 <= jitter <= 1, got " + jitter);
+            }
+            this.ttlJitter = jitter;
+            return this;
+        }
+
+        /**
+         * Enables probabilistic early expiration (XFetch). Each access treats the value as expired
+         * with a probability growing towards the end of its TTL, scaled by the duration of the last
+         * update: values which are slow to update are refreshed earlier, and concurrent relays
+         * refresh at staggered times.
+         *
+         * @param beta Eagerness of early expiration, 1 is a good default, 0 disables it
+         * @return
+         */
+        public Builder<T> withEarlyExpiration(double beta) {
+            this.earlyExpirationBeta = beta;
+            return this;
+        }
+
+        /**
+         * Serves the cached value while it is being revalidated. Between the soft and the hard TTL
+         * subscribers receive the cached value immediately and a single background refresh is
+         * triggered. After the hard TTL subscribers wait for a fresh value.
+         *
+         * @param softTtl  Time to live after which the value is refreshed in the background
+         * @param hardTtl  Time to live after which the value is no longer served
+         * @param timeUnit TimeUnit of both TTLs
+         * @return
+         */
+        public Builder<T> withStaleWhileRevalidate(long softTtl, long hardTtl, TimeUnit timeUnit) {
+            return withStaleWhileRevalidate(timeUnit.toMillis(softTtl), timeUnit.toMillis(hardTtl));
+        }
+
+        /**
+         * @param softTtl Time to live in milliseconds after which the value is refreshed in the background
+         * @param hardTtl Time to live in milliseconds after which the value is no longer served
+         * @return
+         * @see #withStaleWhileRevalidate(long, long, TimeUnit)
+         */
+        public Builder<T> withStaleWhileRevalidate(long softTtl, long hardTtl) {
+            if (softTtl <= 0 || hardTtl < softTtl) {
+                throw new IllegalArgumentException("Expected 0 < softTtl <= hardTtl, got " + softTtl + " and " + hardTtl);
+            }
+            this.timeToLive = softTtl;
+            this.hardTimeToLive = hardTtl;
+            return this;
+        }
+
+        /**
+         * Cancels update attempts which take longer than the timeout. The relay keeps its current
+         * value, the timeout is not passed to the update error consumer.
+         *
+         * @param timeout  Update timeout, set to 0 to disable
+         * @param timeUnit TimeUnit of the timeout
+         * @return
+         * @see StatefulRelay#setDefaultUpdateTimeout(long, TimeUnit)
+         */
+        public Builder<T> withUpdateTimeout(long timeout, TimeUnit timeUnit) {
+            this.updateTimeout = timeUnit.toMillis(timeout);
+            return this;
+        }
+
+        /**
+         * @param timeout         Update timeout, set to 0 to disable
+         * @param timeUnit        TimeUnit of the timeout
+         * @param timeoutConsumer Consumer notified of every timed out update attempt
+         * @return
+         */
+        public Builder<T> withUpdateTimeout(long timeout, TimeUnit timeUnit, Consumer<TimeoutException> timeoutConsumer) {
+            this.updateTimeout = timeUnit.toMillis(timeout);
+            this.updateTimeoutConsumer = timeoutConsumer;
+            return this;
+        }
+
+        /**
+         * Remembers failed initializations and updates for the given time and suppresses further
+         * update attempts meanwhile, so a failing backend is not hit by every new subscriber.
+         *
+         * @param errorTtl Time a failure is remembered, set to 0 to disable
+         * @param timeUnit TimeUnit of the error TTL
+         * @return
+         */
+        public Builder<T> withErrorTTL(long errorTtl, TimeUnit timeUnit) {
+            this.errorTimeToLive = timeUnit.toMillis(errorTtl);
+            return this;
+        }
+
+        /**
+         * Refreshes the value in the background shortly before the TTL elapses, as long as the
+         * relay has active subscribers. Requires a TTL.
+         *
+         * @param lead     Time before the TTL elapses at which the refresh is started
+         * @param timeUnit TimeUnit of the lead time
+         * @return
+         */
+        public Builder<T> withRefreshAhead(long lead, TimeUnit timeUnit) {
+            this.refreshAheadLead = timeUnit.toMillis(lead);
+            return this;
+        }
+
+        /**
+         * @param scheduler Scheduler subscriptions to the relay are made on, defaults to {@link Schedulers#io()}
+         * @return
+         */
+        public Builder<T> withSubscribeScheduler(Scheduler scheduler) {
+            this.subscribeScheduler = scheduler;
+            return this;
+        }
+
+        /**
+         * @param scheduler Scheduler initializations and updates are executed on, defaults to {@link Schedulers#io()}
+         * @return
+         */
+        public Builder<T> withUpdateScheduler(Scheduler scheduler) {
+            this.updateScheduler = scheduler;
+            return this;
+        }
+
+        /**
+         * @param scheduler Scheduler new values are delivered to the relay on, defaults to {@link Schedulers#io()}
+         * @return
+         */
+        public Builder<T> withDeliveryScheduler(Scheduler scheduler) {
+            this.deliveryScheduler = scheduler;
+            return this;
+        }
+
+        /**
+         * Delivers new values on the thread which produced them instead of hopping to the
+         * delivery scheduler, so every initialization and update performs at most one thread
+         * switch.
+         *
+         * @return
+         */
+        public Builder<T> withMinimalThreadHops() {
+            this.minimalThreadHops = true;
+            return this;
+        }
+
+        /**
+         * @param ticker Time source for TTL bookkeeping, defaults to {@link Ticker#SYSTEM}
+         * @return
+         */
+        public Builder<T> withTicker(Ticker ticker) {
+            this.ticker = ticker;
+            return this;
+        }
+
+        /**
+         * Tracks refresh-ahead deadlines on a shared timing wheel instead of one scheduler timer
+         * per relay, so large relay populations are driven by a single thread.
+         *
+         * @param timingWheel Timing wheel shared between relays
+         * @return
+         */
+        public Builder<T> withTimingWheel(TimingWheel timingWheel) {
+            this.timingWheel = timingWheel;
+            return this;
+        }
+
         /**
          * @param updater Maybe stream used to update the object.
          * @return
@@ -96,7 +408,7 @@ public abstract class StatefulRelay<T> {
          * @return
          */
         public Builder<T> withUpdater(Callable<T> updater) {
-            this.updater = Maybe.fromCallable(updater);
+            this.updater = fromCancellableCallable(updater);
             return this;
         }
 
@@ -106,7 +418,105 @@ public abstract class StatefulRelay<T> {
          * @return
          */
         public Builder<T> withUpdater(Callable<T> updater, Consumer<Throwable> errorConsumer) {
-            this.updater = Maybe.fromCallable(updater);
+            this.updater = fromCancellableCallable(updater);
+            this.updaterErrorConsumer = errorConsumer;
+            return this;
+        }
+
+        /**
+         * Retries failed updates according to the policy. Retries are part of the update in
+         * flight, so all waiting subscribers share them.
+         *
+         * @param retryPolicy Retry policy for failed updates
+         * @return
+         */
+        public Builder<T> withRetryPolicy(RetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        /**
+         * Guards initialization and updates with a circuit breaker, which may be shared between
+         * relays calling the same backend. While the breaker is open the relay keeps serving its
+         * cached value.
+         *
+         * @param circuitBreaker Circuit breaker guarding initialization and updates
+         * @return
+         */
+        public Builder<T> withCircuitBreaker(CircuitBreaker circuitBreaker) {
+            this.circuitBreaker = circuitBreaker;
+            return this;
+        }
+
+        /**
+         * Attaches the relay to a rate limiter, which may be shared between relays calling the
+         * same rate-limited backend. Throttled relays keep serving their current value.
+         *
+         * @param rateLimiter Rate limiter for updates
+         * @return
+         */
+        public Builder<T> withRateLimiter(UpdateRateLimiter rateLimiter) {
+            this.rateLimiter = rateLimiter;
+            return this;
+        }
+
+        /**
+         * Runs initialization and updates on a bounded bulkhead executor instead of the update
+         * scheduler. Updates beyond the bulkhead's capacity are handled by its overflow policy,
+         * initializations beyond it are run by the caller with {@code CALLER_RUNS} and retried on
+         * the next access otherwise. Timers such as timeouts and backoffs stay on the update
+         * scheduler, so they fire even while all of the bulkhead's threads are busy.
+         *
+         * @param bulkhead Bulkhead executing initialization and updates
+         * @return
+         */
+        public Builder<T> withBulkhead(UpdateBulkhead bulkhead) {
+            this.bulkhead = bulkhead;
+            return this;
+        }
+
+        /**
+         * @param index Shared index the relay is registered in, holding it weakly
+         * @param tags  Tags of the relay, see {@link InvalidationIndex#invalidateTag(Object)}
+         * @return
+         */
+        public Builder<T> withTags(InvalidationIndex index, Object... tags) {
+            this.invalidationIndex = index;
+            this.tags = tags;
+            return this;
+        }
+
+        /**
+         * @param equivalence Updated values equivalent to the current value are not emitted, their
+         *                    TTL is renewed nonetheless. See {@link Equivalence#equals()},
+         *                    {@link Equivalence#identity()} and
+         *                    {@link Equivalence#fingerprint(Function)}.
+         * @return
+         */
+        public Builder<T> withEquivalence(Equivalence<T> equivalence) {
+            this.equivalence = equivalence;
+            return this;
+        }
+
+        /**
+         * @param updater Updater receiving the current value and its version. It may complete
+         *                empty to signal that the value has not been modified, which renews the
+         *                TTL without emitting. Replaces any other updater.
+         * @return
+         */
+        public Builder<T> withConditionalUpdater(ConditionalUpdater<T> updater) {
+            this.conditionalUpdater = updater;
+            return this;
+        }
+
+        /**
+         * @param updater       Updater receiving the current value and its version.
+         * @param errorConsumer Error consumer to properly handle errors in the updating process.
+         * @return
+         * @see #withConditionalUpdater(ConditionalUpdater)
+         */
+        public Builder<T> withConditionalUpdater(ConditionalUpdater<T> updater, Consumer<Throwable> errorConsumer) {
+            this.conditionalUpdater = updater;
             this.updaterErrorConsumer = errorConsumer;
             return this;
         }
@@ -160,6 +570,18 @@ public abstract class StatefulRelay<T> {
             return this;
         }
 
+        /**
+         * Enables single-flight updates. An update in flight is shared by all concurrent callers
+         * and absorbs invalidations arriving while it is pending, so an invalidation storm costs
+         * exactly one upstream call.
+         *
+         * @return
+         */
+        public Builder<T> withSingleFlight() {
+            this.singleFlight = true;
+            return this;
+        }
+
         /**
          * @param invalidator Invalidator for the relay's value.
          * @return
@@ -173,6 +595,25 @@ public abstract class StatefulRelay<T> {
          * @return StatefulRelay instance
          */
         public StatefulRelay<T> build() {
+            StatefulRelay<T> relay = buildUntagged();
+            if (invalidationIndex != null) {
+                invalidationIndex.tag(relay, tags);
+            }
+            return relay;
+        }
+
+        InvalidationIndex getInvalidationIndex() {
+            return invalidationIndex;
+        }
+
+        Object[] getTags() {
+            return tags;
+        }
+
+        /**
+         * @return Relay configured by this builder, not registered in the invalidation index
+         */
+        StatefulRelay<T> buildUntagged() {
             return new StatefulRelay<T>() {
                 @Override
                 public Maybe<T> maybeInitialValue() {
@@ -184,6 +625,16 @@ public abstract class StatefulRelay<T> {
                     return updater;
                 }
 
+                @Override
+                public ConditionalUpdater<T> getConditionalUpdater() {
+                    return conditionalUpdater;
+                }
+
+                @Override
+                public Equivalence<T> getEquivalence() {
+                    return equivalence;
+                }
+
                 @Override
                 public Consumer<Throwable> updateErrorConsumer() {
                     return updaterErrorConsumer;
@@ -203,67 +654,331 @@ public abstract class StatefulRelay<T> {
                 public long getTTL() {
                     return timeToLive;
                 }
-            };
-        }
-    }
 
-    private BehaviorRelay<T> relay = BehaviorRelay.create();
+                @Override
+                public float getTTLJitter() {
+                    return ttlJitter;
+                }
 
-    private Disposable updateDisposable = null;
+                @Override
+                public double getEarlyExpirationBeta() {
+                    return earlyExpirationBeta;
+                }
 
-    private Disposable initializeDisposable = null;
+                @Override
+                public long getHardTTL() {
+                    return hardTimeToLive;
+                }
 
-    private boolean isInitialized = false;
+                @Override
+                public long getUpdateTimeout() {
+                    return updateTimeout >= 0 ? updateTimeout : super.getUpdateTimeout();
+                }
 
-    private boolean isInvalidated = false;
+                @Override
+                public Consumer<TimeoutException> updateTimeoutConsumer() {
+                    return updateTimeoutConsumer;
+                }
 
-    private boolean isUpdating = false;
+                @Override
+                public long getErrorTTL() {
+                    return errorTimeToLive;
+                }
 
-    private boolean isInitializing = false;
+                @Override
+                public long getRefreshAheadLead() {
+                    return refreshAheadLead;
+                }
 
-    private long lastUpdateTime = 0;
+                @Override
+                public Scheduler getSubscribeScheduler() {
+                    return subscribeScheduler;
+                }
 
-    /**
-     * @return True if the relay's value has to be initialized.
-     */
-    private boolean shouldInitialize() {
-        if (!relay.hasValue()) {
-            if (!isInitialized
-                    && !isInitializing
-                    && (initializeDisposable == null || initializeDisposable.isDisposed())) {
-                return true;
-            }
+                @Override
+                public Scheduler getUpdateScheduler() {
+                    return updateScheduler;
+                }
+
+                @Override
+                public Scheduler getDeliveryScheduler() {
+                    return deliveryScheduler;
+                }
+
+                @Override
+                public boolean isMinimalThreadHops() {
+                    return minimalThreadHops;
+                }
+
+                @Override
+                public Ticker getTicker() {
+                    return ticker;
+                }
+
+                @Override
+                public RetryPolicy getRetryPolicy() {
+                    return retryPolicy;
+                }
+
+                @Override
+                public CircuitBreaker getCircuitBreaker() {
+                    return circuitBreaker;
+                }
+
+                @Override
+                public UpdateRateLimiter getRateLimiter() {
+                    return rateLimiter;
+                }
+
+                @Override
+                public UpdateBulkhead getBulkhead() {
+                    return bulkhead;
+                }
+
+                @Override
+                public TimingWheel getTimingWheel() {
+                    return timingWheel;
+                }
+
+                @Override
+                public boolean isSingleFlight() {
+                    return singleFlight;
+                }
+            };
         }
-        return false;
     }
 
     /**
-     * @return True if the relay's value has to be updated.
+     * Lifecycle flag: the initial value is currently being fetched.
+     */
+    private static final int INITIALIZING = 1;
+
+    /**
+     * Lifecycle flag: the initialization process has finished (successfully or not).
+     */
+    private static final int INITIALIZED = 1 << 1;
+
+    /**
+     * Lifecycle flag: an update is currently in flight.
+     */
+    private static final int UPDATING = 1 << 2;
+
+    /**
+     * Lifecycle flag: the value has been invalidated via {@link #invalidate()}.
      */
-    private boolean shouldUpdate() {
-        if ((!relay.hasValue() || isInvalidated()) && isInitialized) {
-            if ((updateDisposable == null || updateDisposable.isDisposed()) && !isUpdating) {
+    private static final int INVALIDATED = 1 << 3;
+
+    private BehaviorRelay<T> relay = BehaviorRelay.create();
+
+    /**
+     * Packed lifecycle flags. Every transition is a compare-and-set, so exactly one caller wins
+     * the right to initialize or update the relay.
+     */
+    private final AtomicInteger state = new AtomicInteger();
+
+    private volatile Disposable updateDisposable = null;
+
+    private volatile Disposable initializeDisposable = null;
+
+    /**
+     * Marks a value which has never been updated.
+     */
+    private static final long NEVER = Long.MIN_VALUE;
+
+    /**
+     * Ticker reading of the last successful update.
+     */
+    private volatile long lastUpdateTime = NEVER;
+
+    /**
+     * TTL of the current value in nanoseconds after jitter, 0 until the first update.
+     */
+    private volatile long currentTtl = 0;
+
+    /**
+     * Duration of the last successful update in nanoseconds.
+     */
+    private volatile long lastUpdateDuration = 0;
+
+    /**
+     * Version of the current value as returned by the conditional updater.
+     */
+    private volatile String currentVersion = null;
+
+    /**
+     * Set when an update renews a value past its hard TTL without replacing it. Subscribers
+     * arriving meanwhile have filtered the value and wait for it to be emitted again.
+     */
+    private volatile boolean expiredValueRenewed = false;
+
+    /**
+     * Ticker reading of the last failed initialization or update.
+     */
+    private volatile long lastFailureTime = NEVER;
+
+    /**
+     * Default update timeout at the time the relay was created.
+     */
+    private final long defaultTimeout = defaultUpdateTimeout;
+
+    /**
+     * Shared result of the update currently in flight, only used with single-flight updates. It is
+     * published before the update is claimed and cleared after the update has been released, so
+     * it is always set while an update is in flight.
+     */
+    private final AtomicReference<MaybeSubject<T>> inFlightUpdate = new AtomicReference<>();
+
+    /**
+     * Graph of relays depending on this relay's value, if any.
+     */
+    private volatile RelayGraph graph = null;
+
+    /**
+     * Number of active subscribers, only tracked with refresh-ahead enabled or if requested by
+     * {@link #isSubscriberTracked()}.
+     */
+    private final AtomicInteger subscriberCount = new AtomicInteger();
+
+    /**
+     * Pending refresh-ahead task. Guarded by refreshAheadLock.
+     */
+    private Disposable refreshAheadTask;
+
+    /**
+     * Orders scheduling of refresh-ahead tasks. A task may fire and reschedule before the thread
+     * scheduling it has stored it, which must not replace the newer task.
+     */
+    private final Object refreshAheadLock = new Object();
+
+    /**
+     * Atomically claims the initialization of the relay's value.
+     *
+     * @return True if the caller won the transition and has to initialize the relay's value.
+     */
+    private boolean tryBeginInitialize() {
+        for (; ; ) {
+            int current = state.get();
+            if (relay.hasValue() || (current & (INITIALIZING | INITIALIZED)) != 0) {
+                return false;
+            }
+            if (state.compareAndSet(current, current | INITIALIZING)) {
                 return true;
             }
         }
-        return false;
     }
 
     /**
+     * Atomically claims the update of the relay's value. A pending invalidation is consumed by the
+     * winning caller, invalidations arriving while the update is in flight are kept.
+     *
+     * @return True if the caller won the transition and has to update the relay's value.
+     */
+    private boolean tryBeginUpdate() {
+        for (; ; ) {
+            int current = state.get();
+            if (!isUpdateDue(current)) {
+                return false;
+            }
+            if (state.compareAndSet(current, (current | UPDATING) & ~INVALIDATED)) {
+                if (isUpdateDue(current)) {
+                    return true;
+                }
+                transition(0, UPDATING);
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Atomically claims the update of the relay's value with single-flight updates. The shared
+     * result is published before the update is claimed, so callers finding an update in flight
+     * can always attach to it. Invalidations are absorbed by the update.
+     *
+     * @return Shared result if the caller won the transition and has to update the relay's value,
+     * null otherwise.
+     */
+    private MaybeSubject<T> tryBeginSharedUpdate() {
+        MaybeSubject<T> shared = null;
+        for (; ; ) {
+            int current = state.get();
+            if (!isUpdateDue(current)) {
+                return null;
+            }
+            if (shared == null) {
+                shared = MaybeSubject.create();
+            }
+            if (!inFlightUpdate.compareAndSet(null, shared)) {
+                return null;
+            }
+            if (state.compareAndSet(current, current | UPDATING)) {
+                if (isUpdateDue(current)) {
+                    return shared;
+                }
+                transition(0, UPDATING);
+                inFlightUpdate.compareAndSet(shared, null);
+                // Callers may have attached to the result already.
+                shared.onComplete();
+                return null;
+            }
+            inFlightUpdate.compareAndSet(shared, null);
+        }
+    }
+
+    /**
+     * Claims evaluate this twice, before and after the compare-and-set: an update which replaced
+     * the value and finished in between restores the same flags, so the compare-and-set alone
+     * would let a caller update the new value based on a check of the old one.
+     *
+     * @param current Snapshot of the lifecycle flags.
+     * @return True if the relay's value has to be updated and no update is in flight.
+     */
+    private boolean isUpdateDue(int current) {
+        if ((current & UPDATING) != 0) {
+            return false;
+        }
+        // The initial value is delivered before the initialized flag is set.
+        if ((current & INITIALIZED) == 0 && !relay.hasValue()) {
+            return false;
+        }
+        if (relay.hasValue() && !isInvalidated(current)) {
+            return false;
+        }
+        return !isFailureRemembered();
+    }
+
+    /**
+     * Atomically sets and clears the given lifecycle flags.
+     */
+    private void transition(int set, int clear) {
+        for (; ; ) {
+            int current = state.get();
+            int next = (current | set) & ~clear;
+            if (current == next || state.compareAndSet(current, next)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param state Snapshot of the lifecycle flags.
      * @return True if the relay's value has been invalidated.
      */
-    private boolean isInvalidated() {
-        if (isInvalidated) {
+    private boolean isInvalidated(int state) {
+        if ((state & INVALIDATED) != 0) {
             return true;
         }
-        if (relay.hasValue() && relay.getValue() instanceof Invalidatable) {
-            if (((Invalidatable) relay.getValue()).isInvalidated()) {
+        T value = relay.getValue();
+        if (value instanceof Invalidatable) {
+            if (((Invalidatable) value).isInvalidated()) {
                 return true;
             }
         }
 
         if (getTTL() > 0) {
-            if (lastUpdateTime + getTTL() < System.currentTimeMillis()) {
+            if (age() > ttl()) {
+                return true;
+            }
+            if (isExpiringEarly()) {
                 return true;
             }
         }
@@ -271,6 +986,59 @@ public abstract class StatefulRelay<T> {
         return false;
     }
 
+    /**
+     * @return TTL of the current value in nanoseconds.
+     */
+    private long ttl() {
+        long ttl = currentTtl;
+        return ttl > 0 ? ttl : TimeUnit.MILLISECONDS.toNanos(getTTL());
+    }
+
+    /**
+     * XFetch: expires the value early if {@code age - duration * beta * ln(random)} exceeds the TTL.
+     */
+    private boolean isExpiringEarly() {
+        double beta = getEarlyExpirationBeta();
+        long duration = lastUpdateDuration;
+        if (beta <= 0 || duration <= 0 || lastUpdateTime == NEVER) {
+            return false;
+        }
+        double gap = -duration * beta * Math.log(1 - Math.random());
+        return age() + gap >= ttl();
+    }
+
+    /**
+     * @return Nanoseconds since the last successful update, {@link Long#MAX_VALUE} if the value has
+     * never been updated.
+     */
+    private long age() {
+        long updateTime = lastUpdateTime;
+        if (updateTime == NEVER) {
+            return Long.MAX_VALUE;
+        }
+        return getTicker().read() - updateTime;
+    }
+
+    /**
+     * @return True if an initialization or update failed less than the error TTL ago.
+     */
+    private boolean isFailureRemembered() {
+        long failureTime = lastFailureTime;
+        return getErrorTTL() > 0
+                && failureTime != NEVER
+                && getTicker().read() - failureTime <= TimeUnit.MILLISECONDS.toNanos(getErrorTTL());
+    }
+
+    /**
+     * @return True if the relay's value is older than the hard TTL and must not be served. Initial
+     * values which have never been updated are always served.
+     */
+    private boolean isHardExpired() {
+        return getHardTTL() > 0
+                && lastUpdateTime != NEVER
+                && age() > TimeUnit.MILLISECONDS.toNanos(getHardTTL());
+    }
+
     /**
      * @return Flowable with backpressure strategy LATEST
      */
@@ -283,34 +1051,26 @@ public abstract class StatefulRelay<T> {
      * @return Flowable representing the relay
      */
     public Flowable<T> asFlowable(BackpressureStrategy backpressureStrategy) {
-        return relay
-                .toFlowable(backpressureStrategy)
-                .subscribeOn(Schedulers.io())
+        Flowable<T> flowable = relay.toFlowable(backpressureStrategy);
+        if (getHardTTL() > 0) {
+            flowable = flowable.filter(new Predicate<T>() {
+                @Override
+                public boolean test(@NonNull T t) throws Exception {
+                    return !isHardExpired();
+                }
+            });
+        }
+        final boolean trackSubscribers = isRefreshAheadEnabled() || isSubscriberTracked();
+        flowable = flowable
+                .subscribeOn(getSubscribeScheduler())
                 .doOnSubscribe(new Consumer<Subscription>() {
                     @Override
                     public void accept(@NonNull Subscription subscription) throws Exception {
-                        if (shouldInitialize()) {
-                            initializeDisposable = internalInitialValue()
-                                    .subscribeOn(Schedulers.io())
-                                    .observeOn(Schedulers.io())
-                                    .subscribe(new Consumer<T>() {
-                                        @Override
-                                        public void accept(@NonNull T t) throws Exception {
-                                            relay.accept(t);
-                                        }
-                                    }, initializationErrorConsumer());
-                        }
-
-                        if (shouldUpdate()) {
-                            updateDisposable = internalUpdate()
-                                    .subscribeOn(Schedulers.io())
-                                    .observeOn(Schedulers.io())
-                                    .subscribe(new Consumer<T>() {
-                                        @Override
-                                        public void accept(@NonNull T t) throws Exception {
-                                            relay.accept(t);
-                                        }
-                                    }, updateErrorConsumer());
+                        initializeIfNeeded();
+                        updateIfNeeded();
+                        if (trackSubscribers && subscriberCount.getAndIncrement() == 0) {
+                            scheduleRefreshAhead(false);
+                            onSubscribersChanged();
                         }
                     }
                 })
@@ -324,17 +1084,20 @@ public abstract class StatefulRelay<T> {
                             updateDisposable.dispose();
                         }
                     }
-                })
-                .doOnNext(new Consumer<T>() {
-                    @Override
-                    public void accept(@NonNull T t) throws Exception {
-                        if (getInvalidator() != null) {
-                            if (getInvalidator().isInvalidated(t)) {
-                                invalidate();
-                            }
-                        }
-                    }
                 });
+
+        if (trackSubscribers) {
+            flowable = flowable.doFinally(new Action() {
+                @Override
+                public void run() throws Exception {
+                    if (subscriberCount.decrementAndGet() == 0) {
+                        cancelRefreshAhead();
+                        onSubscribersChanged();
+                    }
+                }
+            });
+        }
+        return flowable;
     }
 
     /**
@@ -342,36 +1105,551 @@ public abstract class StatefulRelay<T> {
      * the relay's value is accessed.
      */
     public void invalidate() {
-        if (relay.getValue() != null && relay.getValue() instanceof Invalidatable) {
-            ((Invalidatable) relay.getValue()).invalidate();
+        T value = relay.getValue();
+        if (value instanceof Invalidatable) {
+            ((Invalidatable) value).invalidate();
         } else {
-            isInvalidated = true;
+            transition(INVALIDATED, 0);
+        }
+    }
+
+    /**
+     * Forces an update of the relay's value. With single-flight updates enabled, callers arriving
+     * while an update is in flight attach to its pending result instead of starting another one.
+     * Otherwise the invalidation is kept and served on the next access to the relay.
+     *
+     * @return Maybe emitting the updated value
+     */
+    public Maybe<T> update() {
+        transition(INVALIDATED, 0);
+        if (!isSingleFlight()) {
+            return tryBeginUpdate() ? startUpdate(null) : Maybe.<T>empty();
+        }
+        for (; ; ) {
+            MaybeSubject<T> shared = tryBeginSharedUpdate();
+            if (shared != null) {
+                return startUpdate(shared);
+            }
+            Maybe<T> inFlight = inFlightUpdate.get();
+            if (inFlight != null) {
+                return inFlight;
+            }
+            int current = state.get();
+            if ((current & UPDATING) == 0 && !isUpdateDue(current)) {
+                // Not initialized yet, or the invalidation has been absorbed by an update which
+                // has just finished.
+                return Maybe.empty();
+            }
+            // An update has started or finished in between, attach to it or claim the next one.
+        }
+    }
+
+    /**
+     * Forces an update which starts after this call. An update in flight may have read outdated
+     * inputs, so it is awaited and followed by a fresh one. Requires single-flight updates.
+     *
+     * @return Maybe emitting the updated value
+     */
+    Maybe<T> updateFresh() {
+        return Maybe.defer(new Callable<MaybeSource<T>>() {
+            @Override
+            public MaybeSource<T> call() throws Exception {
+                transition(INVALIDATED, 0);
+                for (; ; ) {
+                    MaybeSubject<T> shared = tryBeginSharedUpdate();
+                    if (shared != null) {
+                        return startUpdate(shared);
+                    }
+                    MaybeSubject<T> inFlight = inFlightUpdate.get();
+                    if (inFlight != null) {
+                        return inFlight.ignoreElement().onErrorComplete().andThen(updateFresh());
+                    }
+                    int current = state.get();
+                    if ((current & UPDATING) == 0 && !isUpdateDue(current)) {
+                        // Not initialized yet or the update is not allowed.
+                        return Maybe.empty();
+                    }
+                }
+            }
+        });
+    }
+
+    RelayGraph getGraph() {
+        return graph;
+    }
+
+    void setGraph(RelayGraph graph) {
+        this.graph = graph;
+    }
+
+    /**
+     * @return True if the relay currently has subscribers. Always false unless subscribers are
+     * tracked.
+     */
+    boolean hasSubscribers() {
+        return subscriberCount.get() > 0;
+    }
+
+    private boolean isRefreshAheadEnabled() {
+        return getRefreshAheadLead() > 0 && getTTL() > 0;
+    }
+
+    /**
+     * Schedules a background refresh shortly before the current value's TTL elapses, replacing a
+     * previously scheduled one. Does nothing without active subscribers.
+     *
+     * @param retry Whether to wait at least one refresh interval, used after refreshes which did
+     *              not renew the value so failing updates are not retried in a loop.
+     */
+    private void scheduleRefreshAhead(boolean retry) {
+        if (!isRefreshAheadEnabled() || subscriberCount.get() == 0) {
+            return;
+        }
+        long lead = TimeUnit.MILLISECONDS.toNanos(getRefreshAheadLead());
+        long refreshAfter = Math.max(0, ttl() - lead);
+        long delay = Math.max(0, refreshAfter - age());
+        if (retry) {
+            delay = Math.max(delay, Math.max(refreshAfter, lead));
+        }
+        Runnable refresh = new Runnable() {
+            @Override
+            public void run() {
+                if (subscriberCount.get() == 0 || (state.get() & UPDATING) != 0) {
+                    // Updates in flight reschedule once they have finished.
+                    return;
+                }
+                transition(INVALIDATED, 0);
+                if (!updateIfNeeded()) {
+                    // Still initializing or remembering a failure, try again later.
+                    scheduleRefreshAhead(true);
+                }
+            }
+        };
+        synchronized (refreshAheadLock) {
+            if (refreshAheadTask != null) {
+                refreshAheadTask.dispose();
+            }
+            refreshAheadTask = getTimingWheel() != null
+                    ? getTimingWheel().schedule(refresh, delay, TimeUnit.NANOSECONDS)
+                    : getUpdateScheduler().scheduleDirect(refresh, delay, TimeUnit.NANOSECONDS);
+        }
+        if (subscriberCount.get() == 0) {
+            // The last subscriber left while scheduling.
+            cancelRefreshAhead();
+        }
+    }
+
+    private void cancelRefreshAhead() {
+        synchronized (refreshAheadLock) {
+            if (refreshAheadTask != null) {
+                refreshAheadTask.dispose();
+                refreshAheadTask = null;
+            }
         }
     }
 
-    private Maybe<T> internalUpdate() {
-        Maybe<T> value = maybeUpdate();
+    /**
+     * Emits a new value. The invalidator is evaluated once per value here instead of once per
+     * subscriber and emission.
+     *
+     * @param value New value of the relay
+     */
+    private void deliver(T value) throws Exception {
+        relay.accept(value);
+        applyInvalidator(value);
+    }
+
+    private void applyInvalidator(T value) throws Exception {
+        Invalidator<T> invalidator = getInvalidator();
+        if (invalidator != null && invalidator.isInvalidated(value)) {
+            invalidate();
+        }
+    }
+
+    private void initializeIfNeeded() {
+        if (tryBeginInitialize()) {
+            Scheduler scheduler = getUpdateScheduler();
+            final UpdateBulkhead bulkhead = getBulkhead();
+            final boolean admitted = bulkhead != null && bulkhead.tryAcquire();
+            if (bulkhead != null) {
+                if (admitted) {
+                    scheduler = bulkhead.getScheduler();
+                } else if (bulkhead.getOverflow() == UpdateBulkhead.Overflow.CALLER_RUNS) {
+                    scheduler = Schedulers.trampoline();
+                } else {
+                    // No value to serve, the next access tries again.
+                    transition(0, INITIALIZING);
+                    return;
+                }
+            }
+            initializeDisposable = onWorkSchedulers(internalInitialValue(), scheduler)
+                    .doOnError(rememberFailure())
+                    .doFinally(new Action() {
+                        @Override
+                        public void run() throws Exception {
+                            if (admitted) {
+                                bulkhead.release();
+                            }
+                            transition(INITIALIZED, INITIALIZING);
+                            scheduleRefreshAhead(false);
+                        }
+                    })
+                    .subscribe(new Consumer<T>() {
+                        @Override
+                        public void accept(@NonNull T t) throws Exception {
+                            deliver(t);
+                        }
+                    }, initializationErrorConsumer());
+        }
+    }
+
+    /**
+     * @return True if an update has been started.
+     */
+    private boolean updateIfNeeded() {
+        if (isSingleFlight()) {
+            MaybeSubject<T> shared = tryBeginSharedUpdate();
+            if (shared != null) {
+                startUpdate(shared);
+                return true;
+            }
+        } else if (tryBeginUpdate()) {
+            startUpdate(null);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Runs the update claimed by {@link #tryBeginUpdate()} or {@link #tryBeginSharedUpdate()}.
+     *
+     * @param shared Shared result with single-flight updates, null otherwise
+     * @return Maybe emitting the updated value without running the update again, shared between
+     * callers with single-flight updates.
+     */
+    private Maybe<T> startUpdate(final MaybeSubject<T> shared) {
+        long delay = 0;
+        if (getRateLimiter() != null) {
+            delay = getRateLimiter().reserve();
+            if (delay < 0) {
+                // Throttled, keep the current value and leave the update pending.
+                transition(isSingleFlight() ? 0 : INVALIDATED, UPDATING);
+                return skipUpdate(shared);
+            }
+        }
+
+        final AtomicBoolean admitted = new AtomicBoolean();
+        final AtomicBoolean finished = new AtomicBoolean();
+        Maybe<T> work;
+        if (delay > 0) {
+            // Deferred updates enter the bulkhead once their delay has passed, so they hold no
+            // permit while waiting.
+            work = Maybe.defer(new Callable<MaybeSource<T>>() {
+                @Override
+                public MaybeSource<T> call() throws Exception {
+                    Scheduler scheduler = admitUpdate(admitted);
+                    if (scheduler == null) {
+                        finished.set(true);
+                        return skipUpdate(shared);
+                    }
+                    return internalUpdate(scheduler);
+                }
+            }).delaySubscription(delay, TimeUnit.NANOSECONDS, getUpdateScheduler());
+        } else {
+            Scheduler scheduler = admitUpdate(admitted);
+            if (scheduler == null) {
+                return skipUpdate(shared);
+            }
+            work = internalUpdate(scheduler);
+        }
+
+        final Action finish = new Action() {
+            @Override
+            public void run() throws Exception {
+                if (finished.compareAndSet(false, true)) {
+                    if (admitted.get()) {
+                        getBulkhead().release();
+                    }
+                    transition(0, isSingleFlight() ? UPDATING | INVALIDATED : UPDATING);
+                    inFlightUpdate.compareAndSet(shared, null);
+                    // Also after failed, throttled or rejected updates.
+                    scheduleRefreshAhead(true);
+                }
+            }
+        };
+
+        Maybe<T> update = onDeliveryScheduler(work)
+                .doOnSuccess(new Consumer<T>() {
+                    @Override
+                    public void accept(@NonNull T t) throws Exception {
+                        // The new value replaces the old one before the update is released, so no
+                        // subscriber finds the old, possibly invalidated value without an update in
+                        // flight. The invalidator runs after the release, a single-flight update
+                        // would absorb its invalidation otherwise.
+                        if (isEquivalent(t)) {
+                            redeliverIfExpired();
+                            finish.run();
+                            return;
+                        }
+                        expiredValueRenewed = false;
+                        relay.accept(t);
+                        finish.run();
+                        applyInvalidator(t);
+                        RelayGraph dependents = graph;
+                        if (dependents != null) {
+                            dependents.onUpdated(StatefulRelay.this);
+                        }
+                    }
+                })
+                .doOnComplete(new Action() {
+                    @Override
+                    public void run() throws Exception {
+                        // Not modified.
+                        redeliverIfExpired();
+                        finish.run();
+                    }
+                })
+                .doFinally(finish)
+                .cache();
+
+        updateDisposable = update.subscribe(new Consumer<T>() {
+            @Override
+            public void accept(@NonNull T t) throws Exception {
+
+            }
+        }, updateErrorConsumer());
+        if (shared != null) {
+            update.subscribe(shared);
+            return shared;
+        }
+        return update;
+    }
+
+    /**
+     * Admits a claimed update to the bulkhead, if any. A rejected update releases its claim
+     * according to the bulkhead's overflow policy and returns its rate limiter permit.
+     *
+     * @param admitted Set if the update holds a bulkhead permit it has to release
+     * @return Scheduler to run the update on, null if the update has been rejected.
+     */
+    private Scheduler admitUpdate(AtomicBoolean admitted) {
+        UpdateBulkhead bulkhead = getBulkhead();
+        if (bulkhead == null) {
+            return getUpdateScheduler();
+        }
+        if (bulkhead.tryAcquire()) {
+            admitted.set(true);
+            return bulkhead.getScheduler();
+        }
+        switch (bulkhead.getOverflow()) {
+            case CALLER_RUNS:
+                return Schedulers.trampoline();
+            case DROP:
+                // Single-flight updates have not consumed the invalidation yet.
+                transition(0, UPDATING | INVALIDATED);
+                break;
+            default:
+                transition(isSingleFlight() ? 0 : INVALIDATED, UPDATING);
+                break;
+        }
+        if (getRateLimiter() != null) {
+            getRateLimiter().refund();
+        }
+        return null;
+    }
+
+    /**
+     * Emits the current value again if it has been renewed after passing its hard TTL, so
+     * subscribers which have filtered it receive it.
+     */
+    private void redeliverIfExpired() {
+        if (expiredValueRenewed) {
+            expiredValueRenewed = false;
+            relay.accept(relay.getValue());
+        }
+    }
+
+    /**
+     * Completes the shared result of an update which has been released without running and
+     * reschedules refresh-ahead.
+     */
+    private Maybe<T> skipUpdate(MaybeSubject<T> shared) {
+        if (shared != null) {
+            inFlightUpdate.compareAndSet(shared, null);
+            shared.onComplete();
+        }
+        scheduleRefreshAhead(true);
+        return Maybe.empty();
+    }
+
+    /**
+     * Like {@link Maybe#fromCallable(Callable)}, but drops the error of a call which has been
+     * cancelled, e.g. the InterruptedException of an update interrupted by its timeout, instead of
+     * reporting it as undeliverable.
+     */
+    private static <T> Maybe<T> fromCancellableCallable(final Callable<T> callable) {
+        return Maybe.create(new MaybeOnSubscribe<T>() {
+            @Override
+            public void subscribe(@NonNull MaybeEmitter<T> emitter) throws Exception {
+                T value;
+                try {
+                    value = callable.call();
+                } catch (Exception e) {
+                    if (!emitter.isDisposed()) {
+                        emitter.onError(e);
+                    }
+                    return;
+                }
+                if (value != null) {
+                    emitter.onSuccess(value);
+                } else {
+                    emitter.onComplete();
+                }
+            }
+        });
+    }
+
+    /**
+     * Moves initialization or update work to the given scheduler and its result to the delivery
+     * scheduler. These are the only thread hops on the update path.
+     */
+    private Maybe<T> onWorkSchedulers(Maybe<T> work, Scheduler scheduler) {
+        return onDeliveryScheduler(work.subscribeOn(scheduler));
+    }
+
+    private Maybe<T> onDeliveryScheduler(Maybe<T> work) {
+        if (!isMinimalThreadHops()) {
+            work = work.observeOn(getDeliveryScheduler());
+        }
+        return work;
+    }
+
+    private long jitteredTtl() {
+        long ttl = TimeUnit.MILLISECONDS.toNanos(getTTL());
+        if (ttl <= 0) {
+            return 0;
+        }
+        return Math.max(1, (long) (ttl * (1 - getTTLJitter() * Math.random())));
+    }
+
+    /**
+     * Renews the TTL of the current value, remembering whether it had passed its hard TTL.
+     *
+     * @param now Ticker reading of the update
+     */
+    private void renew(long now) {
+        expiredValueRenewed = isHardExpired();
+        currentTtl = jitteredTtl();
+        lastUpdateTime = now;
+    }
+
+    private Consumer<Throwable> rememberFailure() {
+        return new Consumer<Throwable>() {
+            @Override
+            public void accept(@NonNull Throwable throwable) throws Exception {
+                lastFailureTime = getTicker().read();
+            }
+        };
+    }
+
+    /**
+     * @return Update through the conditional updater, renewing the TTL if the value has not been
+     * modified. An invalidated {@link Invalidatable} cannot be renewed, so it is requested without
+     * a version.
+     */
+    private Maybe<T> conditionalUpdate() {
+        return Maybe.defer(new Callable<MaybeSource<T>>() {
+            @Override
+            public MaybeSource<T> call() throws Exception {
+                T current = relay.getValue();
+                boolean renewable = !(current instanceof Invalidatable && ((Invalidatable) current).isInvalidated());
+                return getConditionalUpdater()
+                        .update(current, renewable ? currentVersion : null)
+                        .map(new Function<Versioned<T>, T>() {
+                            @Override
+                            public T apply(@NonNull Versioned<T> versioned) throws Exception {
+                                currentVersion = versioned.getVersion();
+                                return versioned.getValue();
+                            }
+                        })
+                        .doOnComplete(new Action() {
+                            @Override
+                            public void run() throws Exception {
+                                // Not modified.
+                                renew(getTicker().read());
+                            }
+                        });
+            }
+        });
+    }
+
+    /**
+     * @param value Updated value
+     * @return Whether the value is equivalent to the current one and may be suppressed. An
+     * invalidated {@link Invalidatable} is always replaced, it would stay invalidated otherwise.
+     */
+    private boolean isEquivalent(T value) throws Exception {
+        Equivalence<T> equivalence = getEquivalence();
+        T current = relay.getValue();
+        if (equivalence == null || current == null) {
+            return false;
+        }
+        if (current instanceof Invalidatable && ((Invalidatable) current).isInvalidated()) {
+            return false;
+        }
+        return equivalence.equivalent(current, value);
+    }
+
+    /**
+     * @param scheduler Scheduler the updater is called on
+     */
+    private Maybe<T> internalUpdate(Scheduler scheduler) {
+        Maybe<T> value = getConditionalUpdater() != null ? conditionalUpdate() : maybeUpdate();
         if (value != null) {
+            value = value.subscribeOn(scheduler);
+            if (getUpdateTimeout() > 0) {
+                // Times out every attempt. Applied downstream of subscribeOn, so disposing the
+                // hung call interrupts the worker thread and frees it.
+                value = value
+                        .timeout(getUpdateTimeout(), TimeUnit.MILLISECONDS, getUpdateScheduler())
+                        .doOnError(new Consumer<Throwable>() {
+                            @Override
+                            public void accept(@NonNull Throwable throwable) throws Exception {
+                                if (throwable instanceof TimeoutException && updateTimeoutConsumer() != null) {
+                                    updateTimeoutConsumer().accept((TimeoutException) throwable);
+                                }
+                            }
+                        });
+            }
+            if (getCircuitBreaker() != null) {
+                // Every retry attempt passes the breaker.
+                value = getCircuitBreaker().decorate(value);
+            }
+            if (getRetryPolicy() != null) {
+                value = value.retryWhen(getRetryPolicy().toHandler(getUpdateScheduler()));
+            }
+            final long[] start = new long[1];
             return value
-                    .subscribeOn(Schedulers.io())
-                    .observeOn(Schedulers.io())
                     .doOnSubscribe(new Consumer<Disposable>() {
                         @Override
                         public void accept(@NonNull Disposable disposable) throws Exception {
-                            isUpdating = true;
+                            start[0] = getTicker().read();
                         }
                     })
                     .doOnSuccess(new Consumer<T>() {
                         @Override
                         public void accept(@NonNull T t) throws Exception {
-                            lastUpdateTime = System.currentTimeMillis();
+                            long now = getTicker().read();
+                            lastUpdateDuration = now - start[0];
+                            renew(now);
                         }
                     })
-                    .doFinally(new Action() {
+                    .doOnError(rememberFailure())
+                    .onErrorComplete(new Predicate<Throwable>() {
                         @Override
-                        public void run() throws Exception {
-                            isUpdating = false;
-                            isInvalidated = false;
+                        public boolean test(@NonNull Throwable throwable) throws Exception {
+                            // Timeouts are reported separately, the current value is kept.
+                            return throwable instanceof TimeoutException;
                         }
                     });
         }
@@ -382,24 +1660,12 @@ public abstract class StatefulRelay<T> {
     private Maybe<T> internalInitialValue() {
         Maybe<T> value = maybeInitialValue();
         if (value != null) {
-            return value
-                    .subscribeOn(Schedulers.io())
-                    .observeOn(Schedulers.io())
-                    .doOnSubscribe(new Consumer<Disposable>() {
-                        @Override
-                        public void accept(@NonNull Disposable disposable) throws Exception {
-                            isInitializing = true;
-                        }
-                    })
-                    .doFinally(new Action() {
-                        @Override
-                        public void run() throws Exception {
-                            isInitializing = false;
-                            isInitialized = true;
-                        }
-                    });
+            if (getCircuitBreaker() != null) {
+                value = getCircuitBreaker().decorate(value);
+            }
+            return value;
         }
-        isInitialized = true;
+        transition(INITIALIZED, INITIALIZING);
         return Maybe.empty();
     }
 
@@ -407,6 +1673,14 @@ public abstract class StatefulRelay<T> {
         return null;
     }
 
+    ConditionalUpdater<T> getConditionalUpdater() {
+        return null;
+    }
+
+    Equivalence<T> getEquivalence() {
+        return null;
+    }
+
     Consumer<Throwable> initializationErrorConsumer() {
         return null;
     }
@@ -426,4 +1700,87 @@ public abstract class StatefulRelay<T> {
     long getTTL() {
         return 0;
     }
+
+    float getTTLJitter() {
+        return 0;
+    }
+
+    double getEarlyExpirationBeta() {
+        return 0;
+    }
+
+    long getHardTTL() {
+        return 0;
+    }
+
+    long getUpdateTimeout() {
+        return defaultTimeout;
+    }
+
+    Consumer<TimeoutException> updateTimeoutConsumer() {
+        return null;
+    }
+
+    long getErrorTTL() {
+        return 0;
+    }
+
+    long getRefreshAheadLead() {
+        return 0;
+    }
+
+    Scheduler getSubscribeScheduler() {
+        return Schedulers.io();
+    }
+
+    Scheduler getUpdateScheduler() {
+        return Schedulers.io();
+    }
+
+    Scheduler getDeliveryScheduler() {
+        return Schedulers.io();
+    }
+
+    boolean isMinimalThreadHops() {
+        return false;
+    }
+
+    Ticker getTicker() {
+        return Ticker.SYSTEM;
+    }
+
+    RetryPolicy getRetryPolicy() {
+        return null;
+    }
+
+    CircuitBreaker getCircuitBreaker() {
+        return null;
+    }
+
+    UpdateRateLimiter getRateLimiter() {
+        return null;
+    }
+
+    UpdateBulkhead getBulkhead() {
+        return null;
+    }
+
+    TimingWheel getTimingWheel() {
+        return null;
+    }
+
+    boolean isSingleFlight() {
+        return false;
+    }
+
+    boolean isSubscriberTracked() {
+        return false;
+    }
+
+    /**
+     * Called once the relay has gained its first or lost its last subscriber, if subscribers are
+     * tracked.
+     */
+    void onSubscribersChanged() {
+    }
 }
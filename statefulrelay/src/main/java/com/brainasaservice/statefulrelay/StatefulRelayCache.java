@@ -0,0 +1,343 @@
+package com.brainasaservice.statefulrelay;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.BackpressureStrategy;
+import io.reactivex.Flowable;
+import io.reactivex.Maybe;
+import io.reactivex.MaybeSource;
+import io.reactivex.functions.Function;
+
+/**
+ * Registry of {@link StatefulRelay}s keyed by {@code K}. Relays are created lazily on first access,
+ * load their values through per-key functions and share a single configuration, so the cache
+ * scales to large key spaces without duplicating builder state per relay.
+ */
+
+public class StatefulRelayCache<K, T> {
+    public static class Builder<K, T> {
+
+        /**
+         * Shared configuration of all relays in the cache.
+         */
+        private StatefulRelay.Builder<T> template = new StatefulRelay.Builder<T>();
+
+        /**
+         * May or may not provide an initial value for a key.
+         */
+        private Function<K, Maybe<T>> initialization;
+
+        /**
+         * May or may not provide updated values for a key.
+         */
+        private Function<K, Maybe<T>> updater;
+
+        /**
+         * Loads the values of many keys at once, replaces the per-key functions if set.
+         */
+        private Function<Set<K>, Maybe<Map<K, T>>> bulkLoader;
+
+        /**
+         * Batching window of the bulk loader in milliseconds.
+         */
+        private long batchWindow;
+
+        /**
+         * Maximum number of keys per bulk loader call.
+         */
+        private int maxBatchSize;
+
+        /**
+         * Expected number of keys.
+         */
+        private int initialCapacity = 16;
+
+        /**
+         * Number of lock stripes of the internal map.
+         */
+        private int concurrencyLevel = 16;
+
+        /**
+         * Maximum number of relays, 0 for unbounded.
+         */
+        private long maximumSize = 0;
+
+        /**
+         * @param loader Function used to initialize and update the value of a key.
+         * @return
+         */
+        public Builder<K, T> withLoader(Function<K, Maybe<T>> loader) {
+            this.initialization = loader;
+            this.updater = loader;
+            return this;
+        }
+
+        /**
+         * @param initialization Function providing the initial value of a key.
+         * @return
+         */
+        public Builder<K, T> withInitialization(Function<K, Maybe<T>> initialization) {
+            this.initialization = initialization;
+            return this;
+        }
+
+        /**
+         * @param updater Function used to update the value of a key.
+         * @return
+         */
+        public Builder<K, T> withUpdater(Function<K, Maybe<T>> updater) {
+            this.updater = updater;
+            return this;
+        }
+
+        /**
+         * Loads keys in bulk. Initializations and updates requested within the batching window,
+         * or until the maximum batch size is reached, are merged into a single loader call whose
+         * result is fanned out to the relays. Replaces the per-key initialization and updater.
+         *
+         * @param bulkLoader   Function loading the values of a set of keys. Keys missing from
+         *                     the returned map are not updated.
+         * @param window       Batching window
+         * @param timeUnit     TimeUnit of the batching window
+         * @param maxBatchSize Maximum number of keys per loader call
+         * @return
+         */
+        public Builder<K, T> withBulkLoader(Function<Set<K>, Maybe<Map<K, T>>> bulkLoader,
+                                            long window, TimeUnit timeUnit, int maxBatchSize) {
+            if (maxBatchSize < 1) {
+                throw new IllegalArgumentException("maxBatchSize must be positive, got " + maxBatchSize);
+            }
+            this.bulkLoader = bulkLoader;
+            this.batchWindow = timeUnit.toMillis(window);
+            this.maxBatchSize = maxBatchSize;
+            return this;
+        }
+
+        /**
+         * @param ttl      Time to live, set to 0 for unlimited
+         * @param timeUnit TimeUnit of TTL
+         * @return
+         */
+        public Builder<K, T> withTTL(long ttl, TimeUnit timeUnit) {
+            this.template.withTTL(ttl, timeUnit);
+            return this;
+        }
+
+        /**
+         * @param invalidator Invalidator for the relays' values.
+         * @return
+         */
+        public Builder<K, T> withInvalidator(Invalidator<T> invalidator) {
+            this.template.withInvalidator(invalidator);
+            return this;
+        }
+
+        /**
+         * @param template Configuration shared by all relays of the cache, e.g. TTL, invalidator,
+         *                 schedulers and error consumers. Initialization and updater of the
+         *                 template are ignored in favor of the cache's per-key functions. Tags of
+         *                 the template are applied to every relay of the cache.
+         * @return
+         */
+        public Builder<K, T> withTemplate(StatefulRelay.Builder<T> template) {
+            this.template = template;
+            return this;
+        }
+
+        /**
+         * @param initialCapacity Expected number of keys
+         * @return
+         */
+        public Builder<K, T> withInitialCapacity(int initialCapacity) {
+            this.initialCapacity = initialCapacity;
+            return this;
+        }
+
+        /**
+         * @param concurrencyLevel Expected number of concurrently updating threads, used to size
+         *                         the lock striping of the internal map.
+         * @return
+         */
+        public Builder<K, T> withConcurrencyLevel(int concurrencyLevel) {
+            this.concurrencyLevel = concurrencyLevel;
+            return this;
+        }
+
+        /**
+         * Bounds the number of relays. Relays are evicted by a frequency-aware Window TinyLFU
+         * policy, relays with active subscribers are never evicted.
+         *
+         * @param maximumSize Maximum number of relays, 0 for unbounded
+         * @return
+         */
+        public Builder<K, T> withMaximumSize(long maximumSize) {
+            this.maximumSize = maximumSize;
+            return this;
+        }
+
+        /**
+         * @return StatefulRelayCache instance
+         */
+        public StatefulRelayCache<K, T> build() {
+            return new StatefulRelayCache<>(this);
+        }
+    }
+
+    final StatefulRelay<T> template;
+
+    final Function<K, Maybe<T>> initialization;
+
+    final Function<K, Maybe<T>> updater;
+
+    /**
+     * Coalesces loads of many keys, null without a bulk loader.
+     */
+    final BatchLoader<K, T> batchLoader;
+
+    /**
+     * Eviction policy, null if the cache is unbounded.
+     */
+    final TinyLfuEviction<K, T> eviction;
+
+    /**
+     * Index every relay of the cache is tagged in, null if the template has no tags.
+     */
+    private final InvalidationIndex invalidationIndex;
+
+    private final Object[] tags;
+
+    private final ConcurrentMap<K, KeyedRelay<K, T>> relays;
+
+    StatefulRelayCache(Builder<K, T> builder) {
+        this.template = builder.template.buildUntagged();
+        this.invalidationIndex = builder.template.getInvalidationIndex();
+        this.tags = invalidationIndex != null ? builder.template.getTags().clone() : null;
+        this.initialization = builder.initialization;
+        this.updater = builder.updater;
+        this.relays = new ConcurrentHashMap<>(builder.initialCapacity, 0.75f, builder.concurrencyLevel);
+        this.batchLoader = builder.bulkLoader != null
+                ? new BatchLoader<>(builder.bulkLoader, builder.batchWindow, builder.maxBatchSize, template.getUpdateScheduler())
+                : null;
+        this.eviction = builder.maximumSize > 0 ? new TinyLfuEviction<K, T>(builder.maximumSize) : null;
+    }
+
+    /**
+     * @param key Key of the value
+     * @return Flowable with backpressure strategy LATEST representing the key's relay
+     */
+    public Flowable<T> get(K key) {
+        return getRelay(key).asFlowable();
+    }
+
+    /**
+     * @param key                  Key of the value
+     * @param backpressureStrategy BackpressureStrategy for the returned flowable
+     * @return Flowable representing the key's relay
+     */
+    public Flowable<T> get(K key, BackpressureStrategy backpressureStrategy) {
+        return getRelay(key).asFlowable(backpressureStrategy);
+    }
+
+    /**
+     * @param key Key of the value
+     * @return The key's relay, created if it does not exist yet.
+     */
+    public StatefulRelay<T> getRelay(K key) {
+        KeyedRelay<K, T> relay = relays.get(key);
+        if (relay != null) {
+            if (eviction != null) {
+                eviction.recordAccess(relay);
+            }
+            return relay;
+        }
+
+        KeyedRelay<K, T> created = new KeyedRelay<>(key, this);
+        relay = relays.putIfAbsent(key, created);
+        if (relay != null) {
+            return relay;
+        }
+        if (invalidationIndex != null) {
+            invalidationIndex.tag(created, tags);
+        }
+        if (eviction != null) {
+            for (KeyedRelay<K, T> evicted : eviction.recordInsert(created)) {
+                relays.remove(evicted.getKey(), evicted);
+            }
+        }
+        return created;
+    }
+
+    /**
+     * Pins or unpins the relay in the eviction policy.
+     */
+    void onSubscribersChanged(KeyedRelay<K, T> relay) {
+        for (KeyedRelay<K, T> evicted : eviction.recordSubscription(relay)) {
+            relays.remove(evicted.getKey(), evicted);
+        }
+    }
+
+    /**
+     * Invalidates the key's value if its relay exists.
+     *
+     * @param key Key of the value
+     */
+    public void invalidate(K key) {
+        KeyedRelay<K, T> relay = relays.get(key);
+        if (relay != null) {
+            relay.invalidate();
+        }
+    }
+
+    /**
+     * Invalidates the values of all keys.
+     */
+    public void invalidateAll() {
+        for (KeyedRelay<K, T> relay : relays.values()) {
+            relay.invalidate();
+        }
+    }
+
+    /**
+     * Removes the key's relay. Existing subscribers keep their relay, new subscribers receive a
+     * newly created one.
+     *
+     * @param key Key of the value
+     */
+    public void remove(K key) {
+        KeyedRelay<K, T> relay = relays.remove(key);
+        if (relay != null && eviction != null) {
+            eviction.recordRemoval(relay);
+        }
+    }
+
+    /**
+     * @return Number of relays in the cache
+     */
+    public int size() {
+        return relays.size();
+    }
+
+    /**
+     * @return Maybe provided by the bulk loader or the function for the key, null if there is
+     * neither. The function is applied on subscription, i.e. on the relay's update scheduler.
+     */
+    Maybe<T> load(final Function<K, Maybe<T>> function, final K key) {
+        if (batchLoader != null) {
+            return batchLoader.load(key);
+        }
+        if (function == null) {
+            return null;
+        }
+        return Maybe.defer(new Callable<MaybeSource<T>>() {
+            @Override
+            public MaybeSource<T> call() throws Exception {
+                return function.apply(key);
+            }
+        });
+    }
+}
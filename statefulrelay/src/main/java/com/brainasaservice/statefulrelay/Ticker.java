@@ -0,0 +1,22 @@
+package com.brainasaservice.statefulrelay;
+
+/**
+ * Source of monotonic time used for TTL bookkeeping.
+ */
+
+public interface Ticker {
+    /**
+     * Ticker backed by {@link System#nanoTime()}.
+     */
+    Ticker SYSTEM = new Ticker() {
+        @Override
+        public long read() {
+            return System.nanoTime();
+        }
+    };
+
+    /**
+     * @return Time in nanoseconds relative to an arbitrary but fixed origin.
+     */
+    long read();
+}
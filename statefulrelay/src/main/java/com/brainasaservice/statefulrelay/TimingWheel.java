@@ -0,0 +1,323 @@
+package com.brainasaservice.statefulrelay;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.disposables.Disposable;
+
+/**
+ * Hierarchical timing wheel driving the timers of many relays from a single thread. Scheduling and
+ * cancelling a timer are O(1), independent of the number of pending timers.
+ * <p>
+ * Level 0 has one slot per tick, every higher level has slots spanning a full rotation of the
+ * level below. Timers are placed on the lowest level covering their deadline and cascade down as
+ * the wheel turns. Timers fire with a precision of one tick, tasks run on the wheel's thread and
+ * must be short.
+ */
+
+public class TimingWheel {
+    public static class Builder {
+
+        /**
+         * Duration of a tick in nanoseconds.
+         */
+        private long tick = TimeUnit.MILLISECONDS.toNanos(100);
+
+        /**
+         * Number of slots per level, a power of two.
+         */
+        private int wheelSize = 256;
+
+        /**
+         * Number of levels.
+         */
+        private int levels = 4;
+
+        /**
+         * Time source for deadlines.
+         */
+        private Ticker ticker = Ticker.SYSTEM;
+
+        /**
+         * @param tick     Duration of a tick, the precision of all timers
+         * @param timeUnit TimeUnit of the tick
+         * @return
+         */
+        public Builder withTick(long tick, TimeUnit timeUnit) {
+            this.tick = Math.max(TimeUnit.MILLISECONDS.toNanos(1), timeUnit.toNanos(tick));
+            return this;
+        }
+
+        /**
+         * @param wheelSize Number of slots per level, rounded up to a power of two
+         * @param levels    Number of levels
+         * @return
+         */
+        public Builder withWheelSize(int wheelSize, int levels) {
+            if (wheelSize < 2 || levels < 1
+                    || Integer.numberOfTrailingZeros(Integer.highestOneBit(wheelSize - 1) << 1) * levels > 62) {
+                throw new IllegalArgumentException("Expected wheelSize >= 2, levels >= 1 and wheelSize^levels <= 2^62, got "
+                        + wheelSize + " and " + levels);
+            }
+            this.wheelSize = Integer.highestOneBit(wheelSize - 1) << 1;
+            this.levels = levels;
+            return this;
+        }
+
+        /**
+         * @param ticker Time source, defaults to {@link Ticker#SYSTEM}
+         * @return
+         */
+        public Builder withTicker(Ticker ticker) {
+            this.ticker = ticker;
+            return this;
+        }
+
+        /**
+         * @return TimingWheel instance
+         */
+        public TimingWheel build() {
+            return new TimingWheel(this);
+        }
+    }
+
+    private static final AtomicInteger WHEELS = new AtomicInteger();
+
+    private final long tick;
+
+    private final int bits;
+
+    private final int mask;
+
+    private final long horizon;
+
+    private final Ticker ticker;
+
+    private final long origin;
+
+    /**
+     * Slot lists per level, owned by the wheel's thread.
+     */
+    private final Timer[][] slots;
+
+    private final Queue<Timer> scheduled = new ConcurrentLinkedQueue<>();
+
+    private final Queue<Timer> cancelled = new ConcurrentLinkedQueue<>();
+
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private volatile boolean shutdown = false;
+
+    /**
+     * Last processed tick, owned by the wheel's thread.
+     */
+    private long currentTick = 0;
+
+    TimingWheel(Builder builder) {
+        this.tick = builder.tick;
+        this.bits = Integer.numberOfTrailingZeros(builder.wheelSize);
+        this.mask = builder.wheelSize - 1;
+        this.horizon = 1L << (bits * builder.levels);
+        this.ticker = builder.ticker;
+        this.origin = ticker.read();
+        this.slots = new Timer[builder.levels][builder.wheelSize];
+    }
+
+    /**
+     * Runs the task once the delay has elapsed.
+     *
+     * @return Disposable cancelling the timer
+     */
+    public Disposable schedule(Runnable task, long delay, TimeUnit timeUnit) {
+        long elapsed = ticker.read() - origin + timeUnit.toNanos(Math.max(0, delay));
+        Timer timer = new Timer(task, (elapsed + tick - 1) / tick);
+        pending.incrementAndGet();
+        scheduled.add(timer);
+        if (!started.get() && started.compareAndSet(false, true)) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    turn();
+                }
+            }, "StatefulRelay-timing-wheel-" + WHEELS.incrementAndGet());
+            thread.setDaemon(true);
+            thread.start();
+        }
+        return timer;
+    }
+
+    /**
+     * @return Number of timers which have neither fired nor been cancelled
+     */
+    public int size() {
+        return pending.get();
+    }
+
+    /**
+     * Stops the wheel's thread, pending timers do not fire anymore.
+     */
+    public void shutdown() {
+        shutdown = true;
+    }
+
+    private void turn() {
+        while (!shutdown) {
+            long wait = (currentTick + 1) * tick - (ticker.read() - origin);
+            if (wait > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                continue;
+            }
+
+            Timer timer;
+            while ((timer = cancelled.poll()) != null) {
+                unlink(timer);
+            }
+            while ((timer = scheduled.poll()) != null) {
+                place(timer);
+            }
+
+            currentTick++;
+            for (int level = slots.length - 1; level > 0; level--) {
+                if ((currentTick & ((1L << (bits * level)) - 1)) == 0) {
+                    cascade(level);
+                }
+            }
+            expire((int) (currentTick & mask));
+        }
+    }
+
+    /**
+     * Places the timer on the lowest level covering its deadline, or fires it if it is due.
+     */
+    private void place(Timer timer) {
+        if (timer.isDisposed()) {
+            return;
+        }
+        long remaining = timer.deadline - currentTick;
+        if (remaining <= 0) {
+            fire(timer);
+            return;
+        }
+        // Deadlines beyond the horizon are parked on the top level and placed again later.
+        long placement = remaining < horizon ? timer.deadline : currentTick + horizon - 1;
+        int level = 0;
+        while (level < slots.length - 1 && placement - currentTick >= 1L << (bits * (level + 1))) {
+            level++;
+        }
+        int slot = (int) ((placement >>> (bits * level)) & mask);
+        timer.level = level;
+        timer.slot = slot;
+        timer.previous = null;
+        timer.next = slots[level][slot];
+        if (timer.next != null) {
+            timer.next.previous = timer;
+        }
+        slots[level][slot] = timer;
+        timer.placed = true;
+    }
+
+    private void cascade(int level) {
+        int slot = (int) ((currentTick >>> (bits * level)) & mask);
+        Timer timer = slots[level][slot];
+        slots[level][slot] = null;
+        while (timer != null) {
+            Timer next = timer.next;
+            timer.placed = false;
+            place(timer);
+            timer = next;
+        }
+    }
+
+    private void expire(int slot) {
+        Timer timer = slots[0][slot];
+        slots[0][slot] = null;
+        while (timer != null) {
+            Timer next = timer.next;
+            timer.placed = false;
+            fire(timer);
+            timer = next;
+        }
+    }
+
+    private void fire(Timer timer) {
+        if (timer.state.compareAndSet(Timer.PENDING, Timer.FIRED)) {
+            pending.decrementAndGet();
+            try {
+                timer.task.run();
+            } catch (Throwable throwable) {
+                Thread.currentThread().getUncaughtExceptionHandler().uncaughtException(Thread.currentThread(), throwable);
+            }
+        }
+    }
+
+    private void unlink(Timer timer) {
+        if (!timer.placed) {
+            return;
+        }
+        if (timer.previous != null) {
+            timer.previous.next = timer.next;
+        } else {
+            slots[timer.level][timer.slot] = timer.next;
+        }
+        if (timer.next != null) {
+            timer.next.previous = timer.previous;
+        }
+        timer.placed = false;
+    }
+
+    private final class Timer implements Disposable {
+        static final int PENDING = 0;
+
+        static final int FIRED = 1;
+
+        static final int CANCELLED = 2;
+
+        final Runnable task;
+
+        /**
+         * Tick at which the timer fires.
+         */
+        final long deadline;
+
+        final AtomicInteger state = new AtomicInteger(PENDING);
+
+        // Owned by the wheel's thread.
+
+        Timer previous;
+
+        Timer next;
+
+        int level;
+
+        int slot;
+
+        boolean placed;
+
+        Timer(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public void dispose() {
+            if (state.compareAndSet(PENDING, CANCELLED)) {
+                pending.decrementAndGet();
+                cancelled.add(this);
+            }
+        }
+
+        @Override
+        public boolean isDisposed() {
+            return state.get() != PENDING;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package com.brainasaservice.statefulrelay;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Window TinyLFU eviction policy for a bounded {@link StatefulRelayCache}.
+ * <p>
+ * New relays enter a small LRU window. Relays leaving the window compete with the least recently
+ * used relay of the main space for admission, the one accessed more often according to a
+ * {@link FrequencySketch} stays. The main space is a segmented LRU: relays accessed again while on
+ * probation are promoted to the protected segment. Relays with active subscribers are pinned: they
+ * are kept aside from the segments while subscribed, so eviction never has to skip them, and return
+ * to probation once their last subscriber has left. Pinned relays count towards the main space, the
+ * cache may exceed its maximum size while it is mostly pinned.
+ * <p>
+ * Accesses are recorded only if the policy's lock is free, so readers never block on each other;
+ * under contention the frequency estimate is sampled instead of exact.
+ */
+
+final class TinyLfuEviction<K, T> {
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final FrequencySketch sketch;
+
+    private final long windowMaximum;
+
+    private final long mainMaximum;
+
+    private final long protectedMaximum;
+
+    private final LinkedHashMap<K, KeyedRelay<K, T>> window = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final LinkedHashMap<K, KeyedRelay<K, T>> probation = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final LinkedHashMap<K, KeyedRelay<K, T>> protectedSegment = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final Map<K, KeyedRelay<K, T>> pinned = new HashMap<>();
+
+    /**
+     * @param maximumSize Maximum number of relays, 1% of which form the window.
+     */
+    TinyLfuEviction(long maximumSize) {
+        this.sketch = new FrequencySketch(maximumSize);
+        this.windowMaximum = Math.min(maximumSize, Math.max(1, maximumSize / 100));
+        this.mainMaximum = maximumSize - windowMaximum;
+        this.protectedMaximum = mainMaximum * 8 / 10;
+    }
+
+    /**
+     * Records an access to an existing relay. Skipped if another thread holds the policy's lock.
+     */
+    void recordAccess(KeyedRelay<K, T> relay) {
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            K key = relay.getKey();
+            sketch.increment(key);
+            if (window.containsKey(key)) {
+                window.get(key);
+            } else if (probation.containsKey(key)) {
+                probation.remove(key);
+                protectedSegment.put(key, relay);
+                demoteProtected();
+            } else if (protectedSegment.containsKey(key)) {
+                protectedSegment.get(key);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records a newly created relay.
+     *
+     * @return Relays evicted to make room, to be removed from the cache.
+     */
+    List<KeyedRelay<K, T>> recordInsert(KeyedRelay<K, T> relay) {
+        lock.lock();
+        try {
+            sketch.increment(relay.getKey());
+            window.put(relay.getKey(), relay);
+            return evict();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Pins a relay which has gained its first subscriber, or unpins it once it has lost its last
+     * one. The relay's current subscriber count decides, so concurrent notifications settle on the
+     * latest state.
+     *
+     * @return Relays evicted to make room, to be removed from the cache.
+     */
+    List<KeyedRelay<K, T>> recordSubscription(KeyedRelay<K, T> relay) {
+        lock.lock();
+        try {
+            if (relay.hasSubscribers()) {
+                if (removeIfSame(window, relay) || removeIfSame(probation, relay)
+                        || removeIfSame(protectedSegment, relay)) {
+                    pinned.put(relay.getKey(), relay);
+                }
+                return Collections.emptyList();
+            }
+            if (removeIfSame(pinned, relay)) {
+                probation.put(relay.getKey(), relay);
+                return evict();
+            }
+            return Collections.emptyList();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Forgets a relay removed from the cache.
+     */
+    void recordRemoval(KeyedRelay<K, T> relay) {
+        lock.lock();
+        try {
+            if (!removeIfSame(window, relay) && !removeIfSame(probation, relay)
+                    && !removeIfSame(protectedSegment, relay)) {
+                removeIfSame(pinned, relay);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private List<KeyedRelay<K, T>> evict() {
+        List<KeyedRelay<K, T>> evicted = Collections.emptyList();
+        while (window.size() > windowMaximum) {
+            KeyedRelay<K, T> candidate = removeEldest(window);
+            if (candidate.hasSubscribers()) {
+                // Subscribed before its pin has been recorded.
+                pinned.put(candidate.getKey(), candidate);
+                continue;
+            }
+            if (mainSize() < mainMaximum) {
+                probation.put(candidate.getKey(), candidate);
+                continue;
+            }
+            if (evicted.isEmpty()) {
+                evicted = new ArrayList<>(1);
+            }
+            KeyedRelay<K, T> victim = findVictim();
+            if (victim != null && sketch.frequency(candidate.getKey()) > sketch.frequency(victim.getKey())) {
+                remove(victim);
+                evicted.add(victim);
+                probation.put(candidate.getKey(), candidate);
+            } else {
+                // Also if the main space is empty or pinned entirely.
+                evicted.add(candidate);
+            }
+        }
+        // Shrink back to the maximum after relays have been unpinned.
+        while (mainSize() > mainMaximum) {
+            KeyedRelay<K, T> victim = findVictim();
+            if (victim == null) {
+                break;
+            }
+            if (evicted.isEmpty()) {
+                evicted = new ArrayList<>(1);
+            }
+            remove(victim);
+            evicted.add(victim);
+        }
+        return evicted;
+    }
+
+    /**
+     * Moves least recently used protected relays back to probation while the protected segment is
+     * over its share of the main space.
+     */
+    private void demoteProtected() {
+        while (protectedSegment.size() > protectedMaximum) {
+            KeyedRelay<K, T> demoted = removeEldest(protectedSegment);
+            probation.put(demoted.getKey(), demoted);
+        }
+    }
+
+    /**
+     * @return Least recently used relay without subscribers of the main space, probation first.
+     * Relays subscribed before their pin has been recorded are pinned on the way, so this is
+     * amortized constant time.
+     */
+    private KeyedRelay<K, T> findVictim() {
+        KeyedRelay<K, T> victim = findVictim(probation);
+        return victim != null ? victim : findVictim(protectedSegment);
+    }
+
+    private KeyedRelay<K, T> findVictim(LinkedHashMap<K, KeyedRelay<K, T>> segment) {
+        while (!segment.isEmpty()) {
+            KeyedRelay<K, T> eldest = segment.values().iterator().next();
+            if (!eldest.hasSubscribers()) {
+                return eldest;
+            }
+            segment.remove(eldest.getKey());
+            pinned.put(eldest.getKey(), eldest);
+        }
+        return null;
+    }
+
+    private long mainSize() {
+        return probation.size() + protectedSegment.size() + pinned.size();
+    }
+
+    private void remove(KeyedRelay<K, T> relay) {
+        if (!removeIfSame(probation, relay)) {
+            removeIfSame(protectedSegment, relay);
+        }
+    }
+
+    private static <K, T> KeyedRelay<K, T> removeEldest(LinkedHashMap<K, KeyedRelay<K, T>> segment) {
+        Iterator<KeyedRelay<K, T>> iterator = segment.values().iterator();
+        KeyedRelay<K, T> eldest = iterator.next();
+        iterator.remove();
+        return eldest;
+    }
+
+    private static <K, T> boolean removeIfSame(Map<K, KeyedRelay<K, T>> segment, KeyedRelay<K, T> relay) {
+        if (segment.containsKey(relay.getKey()) && segment.get(relay.getKey()) == relay) {
+            segment.remove(relay.getKey());
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,266 @@
+package com.brainasaservice.statefulrelay;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.Scheduler;
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * Broadcasts invalidations to peer processes on the same host over loopback UDP. Invalidations
+ * published within the batching window are sent together, repeated invalidations of a key only
+ * once with the highest version.
+ * <p>
+ * Each datagram starts with a magic byte and the number of messages, followed by the messages,
+ * each consisting of the key in modified UTF-8 and the version as a long. Delivery is best effort
+ * like UDP itself, lost invalidations are healed by the relays' TTL.
+ */
+
+public class UdpInvalidationTransport implements InvalidationTransport {
+    public static class Builder {
+
+        /**
+         * Local port to receive on, 0 for an ephemeral port.
+         */
+        private int port = 0;
+
+        /**
+         * Ports of the peer processes on the loopback interface.
+         */
+        private int[] peers = new int[0];
+
+        /**
+         * Batching window in milliseconds.
+         */
+        private long window = 10;
+
+        /**
+         * Scheduler the batching window is timed on and datagrams are sent on.
+         */
+        private Scheduler scheduler = Schedulers.io();
+
+        /**
+         * @param port Local port to receive on, 0 for an ephemeral port
+         * @return
+         */
+        public Builder withPort(int port) {
+            this.port = port;
+            return this;
+        }
+
+        /**
+         * @param peers Ports of the peer processes on the loopback interface
+         * @return
+         */
+        public Builder withPeers(int... peers) {
+            this.peers = peers.clone();
+            return this;
+        }
+
+        /**
+         * @param window   Time invalidations are collected before they are sent together
+         * @param timeUnit Time unit
+         * @return
+         */
+        public Builder withBatchingWindow(long window, TimeUnit timeUnit) {
+            this.window = timeUnit.toMillis(window);
+            return this;
+        }
+
+        /**
+         * @param scheduler Scheduler the batching window is timed on and datagrams are sent on
+         * @return
+         */
+        public Builder withScheduler(Scheduler scheduler) {
+            this.scheduler = scheduler;
+            return this;
+        }
+
+        /**
+         * @return Transport bound to the local port
+         * @throws IOException if the port cannot be bound
+         */
+        public UdpInvalidationTransport build() throws IOException {
+            return new UdpInvalidationTransport(this);
+        }
+    }
+
+    private static final int MAGIC = 0x52;
+
+    /**
+     * Payload size up to which messages are packed into one datagram.
+     */
+    private static final int MAX_DATAGRAM = 8192;
+
+    private static final AtomicInteger TRANSPORTS = new AtomicInteger();
+
+    private final DatagramSocket socket;
+
+    private final InetSocketAddress[] peers;
+
+    private final long window;
+
+    private final Scheduler scheduler;
+
+    /**
+     * Invalidations awaiting the end of the batching window, by key. Guarded by this.
+     */
+    private Map<String, Long> pending = new LinkedHashMap<>();
+
+    private volatile Listener listener;
+
+    private UdpInvalidationTransport(Builder builder) throws IOException {
+        InetAddress loopback = InetAddress.getByAddress(new byte[]{127, 0, 0, 1});
+        this.socket = new DatagramSocket(new InetSocketAddress(loopback, builder.port));
+        this.peers = new InetSocketAddress[builder.peers.length];
+        for (int i = 0; i < peers.length; i++) {
+            peers[i] = new InetSocketAddress(loopback, builder.peers[i]);
+        }
+        this.window = builder.window;
+        this.scheduler = builder.scheduler;
+    }
+
+    /**
+     * @return Local port the transport receives on
+     */
+    public int getPort() {
+        return socket.getLocalPort();
+    }
+
+    @Override
+    public void publish(String key, long version) {
+        boolean opened;
+        synchronized (this) {
+            opened = pending.isEmpty();
+            Long previous = pending.get(key);
+            if (previous == null || previous < version) {
+                pending.put(key, version);
+            }
+        }
+        if (opened) {
+            scheduler.scheduleDirect(new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            }, window, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        boolean start = this.listener == null;
+        this.listener = listener;
+        if (start && listener != null) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    receive();
+                }
+            }, "StatefulRelay-invalidation-" + TRANSPORTS.incrementAndGet());
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    @Override
+    public void close() {
+        socket.close();
+    }
+
+    /**
+     * Sends all pending invalidations, packed into as few datagrams as possible.
+     */
+    private void flush() {
+        Map<String, Long> batch;
+        synchronized (this) {
+            batch = pending;
+            pending = new LinkedHashMap<>();
+        }
+        ByteArrayOutputStream messages = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(messages);
+        int count = 0;
+        for (Map.Entry<String, Long> entry : batch.entrySet()) {
+            int size = messages.size();
+            try {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue());
+            } catch (IOException e) {
+                // Key too long to encode, nothing has been written for it.
+                continue;
+            }
+            if (messages.size() > MAX_DATAGRAM && count > 0) {
+                // Send what fits and carry the message over to the next datagram.
+                byte[] bytes = messages.toByteArray();
+                send(bytes, size, count);
+                messages.reset();
+                messages.write(bytes, size, bytes.length - size);
+                count = 0;
+            }
+            count++;
+        }
+        if (count > 0) {
+            send(messages.toByteArray(), messages.size(), count);
+        }
+    }
+
+    private void send(byte[] messages, int length, int count) {
+        byte[] datagram = new byte[3 + length];
+        datagram[0] = (byte) MAGIC;
+        datagram[1] = (byte) (count >>> 8);
+        datagram[2] = (byte) count;
+        System.arraycopy(messages, 0, datagram, 3, length);
+        for (InetSocketAddress peer : peers) {
+            try {
+                socket.send(new DatagramPacket(datagram, datagram.length, peer));
+            } catch (IOException e) {
+                // This peer is not reachable, the others still get the batch. Its values expire
+                // with the TTL.
+            }
+        }
+    }
+
+    private void receive() {
+        byte[] buffer = new byte[65535];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        while (!socket.isClosed()) {
+            try {
+                packet.setLength(buffer.length);
+                socket.receive(packet);
+            } catch (IOException e) {
+                return;
+            }
+            DataInputStream in = new DataInputStream(
+                    new ByteArrayInputStream(packet.getData(), packet.getOffset(), packet.getLength()));
+            try {
+                if (in.readUnsignedByte() != MAGIC) {
+                    continue;
+                }
+                int count = in.readUnsignedShort();
+                for (int i = 0; i < count; i++) {
+                    String key = in.readUTF();
+                    long version = in.readLong();
+                    try {
+                        listener.onInvalidation(key, version);
+                    } catch (RuntimeException e) {
+                        // Invalidation runs user code, which must not stop the receiver.
+                        Thread.currentThread().getUncaughtExceptionHandler().uncaughtException(Thread.currentThread(), e);
+                    }
+                }
+            } catch (IOException e) {
+                // Malformed datagram, drop the rest of it.
+            }
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.brainasaservice.statefulrelay;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.reactivex.Scheduler;
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * Bounded executor for relay initializations and updates. At most {@code maxConcurrency} of them
+ * run at once and at most {@code queueSize} more wait for a thread; updates beyond that are handled
+ * by the {@link Overflow} policy. May be shared by many relays.
+ */
+
+public class UpdateBulkhead {
+    public enum Overflow {
+        /**
+         * Skip the update, keep serving the current value and retry on the next access.
+         */
+        SERVE_STALE,
+        /**
+         * Skip the update and discard the pending invalidation.
+         */
+        DROP,
+        /**
+         * Run the update on the calling thread.
+         */
+        CALLER_RUNS
+    }
+
+    public static class Builder {
+
+        /**
+         * Maximum number of concurrently running updates.
+         */
+        private int maxConcurrency = 4;
+
+        /**
+         * Maximum number of updates waiting for a thread.
+         */
+        private int queueSize = 64;
+
+        /**
+         * Handling of updates beyond the queue size.
+         */
+        private Overflow overflow = Overflow.SERVE_STALE;
+
+        /**
+         * @param maxConcurrency Maximum number of concurrently running updates
+         * @return
+         */
+        public Builder withMaxConcurrency(int maxConcurrency) {
+            this.maxConcurrency = Math.max(1, maxConcurrency);
+            return this;
+        }
+
+        /**
+         * @param queueSize Maximum number of updates waiting for a thread
+         * @return
+         */
+        public Builder withQueueSize(int queueSize) {
+            this.queueSize = Math.max(0, queueSize);
+            return this;
+        }
+
+        /**
+         * @param overflow Handling of updates beyond the queue size
+         * @return
+         */
+        public Builder withOverflow(Overflow overflow) {
+            this.overflow = overflow;
+            return this;
+        }
+
+        /**
+         * @return UpdateBulkhead instance
+         */
+        public UpdateBulkhead build() {
+            return new UpdateBulkhead(this);
+        }
+    }
+
+    private final ThreadPoolExecutor executor;
+
+    private final Scheduler scheduler;
+
+    private final Overflow overflow;
+
+    /**
+     * Maximum number of admitted updates, running or queued.
+     */
+    private final int capacity;
+
+    private final AtomicInteger admitted = new AtomicInteger();
+
+    private final AtomicLong overflowed = new AtomicLong();
+
+    UpdateBulkhead(Builder builder) {
+        // Admission of initializations and updates is bounded by the capacity, which bounds the
+        // queue. The queue itself must not reject: a hung call interrupted by its timeout may
+        // still hold a thread while the retry of the same admitted update is queued.
+        this.executor = new ThreadPoolExecutor(builder.maxConcurrency, builder.maxConcurrency,
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new BulkheadThreadFactory());
+        this.executor.allowCoreThreadTimeOut(true);
+        this.scheduler = Schedulers.from(executor);
+        this.overflow = builder.overflow;
+        this.capacity = builder.maxConcurrency + builder.queueSize;
+    }
+
+    /**
+     * @return Number of threads currently executing updates
+     */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * @return Number of tasks waiting for a thread
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return Number of admitted updates which have not finished yet, running or queued
+     */
+    public int getAdmittedCount() {
+        return admitted.get();
+    }
+
+    /**
+     * @return Number of updates handled by the overflow policy so far
+     */
+    public long getOverflowCount() {
+        return overflowed.get();
+    }
+
+    /**
+     * Stops the bulkhead's threads once all admitted updates have finished.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    Scheduler getScheduler() {
+        return scheduler;
+    }
+
+    Overflow getOverflow() {
+        return overflow;
+    }
+
+    /**
+     * @return True if the update is admitted and has to {@link #release()} once finished.
+     */
+    boolean tryAcquire() {
+        for (; ; ) {
+            int current = admitted.get();
+            if (current >= capacity) {
+                overflowed.incrementAndGet();
+                return false;
+            }
+            if (admitted.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    void release() {
+        admitted.decrementAndGet();
+    }
+
+    private static final class BulkheadThreadFactory implements ThreadFactory {
+        private static final AtomicInteger POOL = new AtomicInteger();
+
+        private final int pool = POOL.incrementAndGet();
+
+        private final AtomicInteger thread = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread result = new Thread(runnable, "StatefulRelay-bulkhead-" + pool + "-" + thread.incrementAndGet());
+            result.setDaemon(true);
+            return result;
+        }
+    }
+}
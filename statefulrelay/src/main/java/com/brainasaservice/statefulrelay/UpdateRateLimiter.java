@@ -0,0 +1,140 @@
+package com.brainasaservice.statefulrelay;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket limiting the rate of updates of all relays it is attached to.
+ * <p>
+ * The bucket is tracked as the theoretical arrival time of the next permit (GCRA), so acquiring a
+ * permit is a single compare-and-set. Updates beyond the rate are deferred up to the maximum delay
+ * and rejected afterwards; a rejected relay keeps serving its current value and retries on the
+ * next access.
+ */
+
+public class UpdateRateLimiter {
+    public static class Builder {
+
+        /**
+         * Nanoseconds between two permits.
+         */
+        private long interval = TimeUnit.SECONDS.toNanos(1);
+
+        /**
+         * Number of permits available at once.
+         */
+        private int burst = 1;
+
+        /**
+         * Nanoseconds an update may be deferred before it is rejected.
+         */
+        private long maxDelay = 0;
+
+        /**
+         * Time source for the bucket.
+         */
+        private Ticker ticker = Ticker.SYSTEM;
+
+        /**
+         * @param permits  Number of updates permitted per period
+         * @param period   Length of the period
+         * @param timeUnit TimeUnit of the period
+         * @return
+         */
+        public Builder withRate(long permits, long period, TimeUnit timeUnit) {
+            if (permits < 1 || period < 1) {
+                throw new IllegalArgumentException("Expected positive permits and period, got " + permits + " and " + period);
+            }
+            this.interval = Math.max(1, timeUnit.toNanos(period) / permits);
+            return this;
+        }
+
+        /**
+         * @param burst Number of updates permitted at once after a quiet period
+         * @return
+         */
+        public Builder withBurst(int burst) {
+            this.burst = Math.max(1, burst);
+            return this;
+        }
+
+        /**
+         * @param maxDelay Time an update may be deferred, 0 to reject all updates beyond the rate
+         * @param timeUnit TimeUnit of the delay
+         * @return
+         */
+        public Builder withMaxDelay(long maxDelay, TimeUnit timeUnit) {
+            this.maxDelay = timeUnit.toNanos(maxDelay);
+            return this;
+        }
+
+        /**
+         * @param ticker Time source, defaults to {@link Ticker#SYSTEM}
+         * @return
+         */
+        public Builder withTicker(Ticker ticker) {
+            this.ticker = ticker;
+            return this;
+        }
+
+        /**
+         * @return UpdateRateLimiter instance
+         */
+        public UpdateRateLimiter build() {
+            return new UpdateRateLimiter(this);
+        }
+    }
+
+    private final long interval;
+
+    /**
+     * How far the theoretical arrival time may run ahead of now while permits are still granted
+     * immediately.
+     */
+    private final long tolerance;
+
+    private final long maxDelay;
+
+    private final Ticker ticker;
+
+    /**
+     * Theoretical arrival time of the next permit.
+     */
+    private final AtomicLong arrival;
+
+    UpdateRateLimiter(Builder builder) {
+        this.interval = builder.interval;
+        this.tolerance = builder.interval * (builder.burst - 1);
+        this.maxDelay = builder.maxDelay;
+        this.ticker = builder.ticker;
+        this.arrival = new AtomicLong(ticker.read());
+    }
+
+    /**
+     * Reserves a permit.
+     *
+     * @return Nanoseconds the update has to be deferred, negative if it is rejected.
+     */
+    long reserve() {
+        for (; ; ) {
+            long now = ticker.read();
+            long current = arrival.get();
+            long start = current - now > 0 ? current : now;
+            long delay = Math.max(0, start - now - tolerance);
+            if (delay > maxDelay) {
+                return -1;
+            }
+            if (arrival.compareAndSet(current, start + interval)) {
+                return delay;
+            }
+        }
+    }
+
+    /**
+     * Returns a reserved permit which has not been used, e.g. because the update was rejected by
+     * a bulkhead.
+     */
+    void refund() {
+        arrival.addAndGet(-interval);
+    }
+}
@@ -0,0 +1,33 @@
+package com.brainasaservice.statefulrelay;
+
+/**
+ * Value paired with its version, e.g. an ETag, as returned by a {@link ConditionalUpdater}.
+ */
+
+public final class Versioned<T> {
+    private final T value;
+
+    private final String version;
+
+    private Versioned(T value, String version) {
+        this.value = value;
+        this.version = version;
+    }
+
+    /**
+     * @param value   Updated value
+     * @param version Version of the value, may be null
+     * @return Versioned instance
+     */
+    public static <T> Versioned<T> of(T value, String version) {
+        return new Versioned<>(value, version);
+    }
+
+    public T getValue() {
+        return value;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+}
@@ -0,0 +1,114 @@
+package com.brainasaservice.statefulrelay;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Maybe;
+import io.reactivex.functions.Function;
+import io.reactivex.observers.TestObserver;
+import io.reactivex.schedulers.TestScheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BatchLoaderTest {
+    private final TestScheduler scheduler = new TestScheduler();
+
+    private final List<Set<Integer>> batches = new ArrayList<>();
+
+    /**
+     * Loads every requested key as its square, except for keys missing in the source.
+     */
+    private final Function<Set<Integer>, Maybe<Map<Integer, Integer>>> squares = new Function<Set<Integer>, Maybe<Map<Integer, Integer>>>() {
+        @Override
+        public Maybe<Map<Integer, Integer>> apply(Set<Integer> keys) throws Exception {
+            batches.add(new LinkedHashSet<>(keys));
+            Map<Integer, Integer> values = new HashMap<>();
+            for (Integer key : keys) {
+                if (key >= 0) {
+                    values.put(key, key * key);
+                }
+            }
+            return Maybe.just(values);
+        }
+    };
+
+    @Test
+    public void dispatchesKeysOfOneWindowTogether() {
+        BatchLoader<Integer, Integer> loader = new BatchLoader<>(squares, 10, 100, scheduler);
+        TestObserver<Integer> two = loader.load(2).test();
+        TestObserver<Integer> three = loader.load(3).test();
+
+        scheduler.advanceTimeBy(9, TimeUnit.MILLISECONDS);
+        assertTrue(batches.isEmpty());
+        two.assertEmpty();
+
+        scheduler.advanceTimeBy(1, TimeUnit.MILLISECONDS);
+        assertEquals(1, batches.size());
+        assertEquals(new LinkedHashSet<>(Arrays.asList(2, 3)), batches.get(0));
+        two.assertResult(4);
+        three.assertResult(9);
+
+        // The next key opens a new window.
+        TestObserver<Integer> four = loader.load(4).test();
+        scheduler.advanceTimeBy(10, TimeUnit.MILLISECONDS);
+        assertEquals(2, batches.size());
+        four.assertResult(16);
+    }
+
+    @Test
+    public void dispatchesFullBatchesImmediately() {
+        BatchLoader<Integer, Integer> loader = new BatchLoader<>(squares, 10, 2, scheduler);
+        TestObserver<Integer> one = loader.load(1).test();
+        TestObserver<Integer> two = loader.load(2).test();
+
+        assertEquals(1, batches.size());
+        one.assertResult(1);
+        two.assertResult(4);
+
+        // The window of the dispatched batch does not dispatch the next one early.
+        TestObserver<Integer> three = loader.load(3).test();
+        scheduler.advanceTimeBy(9, TimeUnit.MILLISECONDS);
+        assertEquals(1, batches.size());
+        scheduler.advanceTimeBy(1, TimeUnit.MILLISECONDS);
+        assertEquals(2, batches.size());
+        three.assertResult(9);
+    }
+
+    @Test
+    public void completesKeysMissingFromTheResult() {
+        BatchLoader<Integer, Integer> loader = new BatchLoader<>(squares, 10, 100, scheduler);
+        TestObserver<Integer> present = loader.load(5).test();
+        TestObserver<Integer> missing = loader.load(-1).test();
+
+        scheduler.advanceTimeBy(10, TimeUnit.MILLISECONDS);
+        present.assertResult(25);
+        missing.assertResult();
+    }
+
+    @Test
+    public void fansLoaderErrorsOutToAllKeys() {
+        final IOException failure = new IOException("unavailable");
+        BatchLoader<Integer, Integer> loader = new BatchLoader<>(new Function<Set<Integer>, Maybe<Map<Integer, Integer>>>() {
+            @Override
+            public Maybe<Map<Integer, Integer>> apply(Set<Integer> keys) throws Exception {
+                throw failure;
+            }
+        }, 10, 100, scheduler);
+        TestObserver<Integer> one = loader.load(1).test();
+        TestObserver<Integer> two = loader.load(2).test();
+
+        scheduler.advanceTimeBy(10, TimeUnit.MILLISECONDS);
+        one.assertFailure(IOException.class);
+        two.assertFailure(IOException.class);
+    }
+}
@@ -0,0 +1,145 @@
+package com.brainasaservice.statefulrelay;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.reactivex.Maybe;
+import io.reactivex.subjects.MaybeSubject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CircuitBreakerTest {
+    private final AtomicLong now = new AtomicLong();
+
+    private final AtomicInteger calls = new AtomicInteger();
+
+    private final CircuitBreaker breaker = new CircuitBreaker.Builder()
+            .withFailureRateThreshold(50)
+            .withSlowCallThreshold(1, TimeUnit.SECONDS, 50)
+            .withSlidingWindow(10, 4)
+            .withOpenDuration(30, TimeUnit.SECONDS)
+            .withHalfOpenCalls(2)
+            .withTicker(new Ticker() {
+                @Override
+                public long read() {
+                    return now.get();
+                }
+            })
+            .build();
+
+    private Maybe<Integer> call(final boolean fail, final long duration) {
+        return breaker.decorate(Maybe.fromCallable(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                calls.incrementAndGet();
+                now.addAndGet(TimeUnit.MILLISECONDS.toNanos(duration));
+                if (fail) {
+                    throw new IOException();
+                }
+                return 1;
+            }
+        }));
+    }
+
+    private void run(boolean fail, long duration) {
+        call(fail, duration).onErrorComplete().blockingGet();
+    }
+
+    @Test
+    public void opensOnceFailureRateReachesThreshold() {
+        run(true, 0);
+        run(true, 0);
+        run(true, 0);
+        // Rates are evaluated from the minimum number of calls on.
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        run(false, 0);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        assertEquals(null, call(false, 0).blockingGet());
+        assertEquals(4, calls.get());
+    }
+
+    @Test
+    public void staysClosedBelowThreshold() {
+        for (int i = 0; i < 30; i++) {
+            run(i % 3 == 2, 0);
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void opensOnSlowCalls() {
+        for (int i = 0; i < 4; i++) {
+            run(false, 1500);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void closesAfterSuccessfulProbes() {
+        open();
+        now.addAndGet(TimeUnit.SECONDS.toNanos(30));
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+        run(false, 0);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        run(false, 0);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void reopensAfterFailedProbes() {
+        open();
+        now.addAndGet(TimeUnit.SECONDS.toNanos(30));
+        run(true, 0);
+        run(false, 0);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        now.addAndGet(TimeUnit.SECONDS.toNanos(29));
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void limitsAndReturnsProbePermits() {
+        open();
+        now.addAndGet(TimeUnit.SECONDS.toNanos(30));
+        MaybeSubject<Integer> first = MaybeSubject.create();
+        MaybeSubject<Integer> second = MaybeSubject.create();
+        breaker.decorate(first).subscribe();
+        breaker.decorate(second).subscribe().dispose();
+        assertTrue(first.hasObservers());
+
+        // The cancelled probe returned its permit, a third one is rejected.
+        breaker.decorate(MaybeSubject.<Integer>create()).subscribe();
+        assertFalse(breaker.tryAcquire());
+    }
+
+    @Test
+    public void closesWithMoreProbesThanTheWindowHolds() {
+        CircuitBreaker breaker = new CircuitBreaker.Builder()
+                .withSlidingWindow(2, 2)
+                .withHalfOpenCalls(5)
+                .withOpenDuration(0, TimeUnit.SECONDS)
+                .build();
+        breaker.decorate(Maybe.error(new IOException())).onErrorComplete().blockingGet();
+        breaker.decorate(Maybe.error(new IOException())).onErrorComplete().blockingGet();
+        for (int i = 0; i < 5; i++) {
+            breaker.decorate(Maybe.just(1)).blockingGet();
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    private void open() {
+        for (int i = 0; i < 4; i++) {
+            run(true, 0);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        calls.set(0);
+    }
+}
@@ -0,0 +1,120 @@
+package com.brainasaservice.statefulrelay;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.Maybe;
+import io.reactivex.functions.Consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+public class ConditionalUpdaterTest {
+    private static final class Document implements Invalidatable {
+        private volatile boolean invalidated;
+
+        @Override
+        public boolean isInvalidated() {
+            return invalidated;
+        }
+
+        @Override
+        public void invalidate() {
+            invalidated = true;
+        }
+    }
+
+    private final ManualTicker ticker = new ManualTicker();
+
+    private final List<String> versions = Collections.synchronizedList(new ArrayList<String>());
+
+    private final AtomicInteger emissions = new AtomicInteger();
+
+    /**
+     * Returns a new document with version "1" for unconditional requests, not modified otherwise.
+     */
+    private final ConditionalUpdater<Document> updater = new ConditionalUpdater<Document>() {
+        @Override
+        public Maybe<Versioned<Document>> update(Document current, String version) {
+            versions.add(version);
+            if (version != null) {
+                return Maybe.<Versioned<Document>>empty().delay(300, TimeUnit.MILLISECONDS);
+            }
+            return Maybe.just(Versioned.of(new Document(), "1"));
+        }
+    };
+
+    private StatefulRelay.Builder<Document> builder() {
+        return new StatefulRelay.Builder<Document>()
+                .withInitialization(new Document())
+                .withConditionalUpdater(updater)
+                .withTicker(ticker)
+                .withSingleFlight();
+    }
+
+    private Document first(StatefulRelay<Document> relay) {
+        return relay.asFlowable().timeout(2, TimeUnit.SECONDS).blockingFirst();
+    }
+
+    @Test
+    public void notModifiedRenewsTheTtlWithoutEmitting() throws Exception {
+        StatefulRelay<Document> relay = builder()
+                .withTTL(1, TimeUnit.SECONDS)
+                .build();
+        first(relay);
+        relay.update().timeout(5, TimeUnit.SECONDS).blockingGet();
+        Document current = first(relay);
+        relay.asFlowable().subscribe(new Consumer<Document>() {
+            @Override
+            public void accept(Document document) throws Exception {
+                emissions.incrementAndGet();
+            }
+        });
+
+        ticker.advance(2, TimeUnit.SECONDS);
+        assertEquals(null, relay.update().timeout(5, TimeUnit.SECONDS).blockingGet());
+        assertEquals("1", versions.get(versions.size() - 1));
+
+        // Renewed, the next access does not request again.
+        ticker.advance(500, TimeUnit.MILLISECONDS);
+        int requests = versions.size();
+        assertSame(current, first(relay));
+        Thread.sleep(100);
+        assertEquals(requests, versions.size());
+        assertEquals(1, emissions.get());
+    }
+
+    @Test
+    public void notModifiedPastTheHardTtlIsEmittedAgain() throws Exception {
+        StatefulRelay<Document> relay = builder()
+                .withStaleWhileRevalidate(1, 2, TimeUnit.SECONDS)
+                .build();
+        first(relay);
+        relay.update().timeout(5, TimeUnit.SECONDS).blockingGet();
+        Document current = first(relay);
+
+        ticker.advance(3, TimeUnit.SECONDS);
+        assertSame(current, first(relay));
+        assertEquals("1", versions.get(versions.size() - 1));
+    }
+
+    @Test
+    public void invalidatedValuesAreRequestedWithoutVersion() throws Exception {
+        StatefulRelay<Document> relay = builder().build();
+        first(relay);
+        relay.update().timeout(5, TimeUnit.SECONDS).blockingGet();
+        Document current = first(relay);
+
+        relay.invalidate();
+        Document updated = relay.update().timeout(5, TimeUnit.SECONDS).blockingGet();
+        assertEquals(null, versions.get(versions.size() - 1));
+        assertFalse(updated == current);
+        assertFalse(first(relay).isInvalidated());
+    }
+}
@@ -0,0 +1,133 @@
+package com.brainasaservice.statefulrelay;
+
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.functions.Consumer;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.schedulers.TestScheduler;
+import io.reactivex.subscribers.TestSubscriber;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class EquivalenceTest {
+    private static final class Document implements Invalidatable {
+        private final String content;
+
+        private volatile boolean invalidated;
+
+        Document(String content) {
+            this.content = content;
+        }
+
+        @Override
+        public boolean isInvalidated() {
+            return invalidated;
+        }
+
+        @Override
+        public void invalidate() {
+            invalidated = true;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Document && ((Document) o).content.equals(content);
+        }
+
+        @Override
+        public int hashCode() {
+            return content.hashCode();
+        }
+    }
+
+    private final AtomicInteger updates = new AtomicInteger();
+
+    private final AtomicInteger emissions = new AtomicInteger();
+
+    private StatefulRelay<Document> relay() {
+        return new StatefulRelay.Builder<Document>()
+                .withInitialization(new Document("a"))
+                .withUpdater(new Callable<Document>() {
+                    @Override
+                    public Document call() throws Exception {
+                        updates.incrementAndGet();
+                        return new Document("a");
+                    }
+                })
+                .withEquivalence(Equivalence.<Document>equals())
+                .withSubscribeScheduler(Schedulers.trampoline())
+                .withUpdateScheduler(Schedulers.trampoline())
+                .withDeliveryScheduler(Schedulers.trampoline())
+                .build();
+    }
+
+    @Test
+    public void suppressesEquivalentValues() {
+        StatefulRelay<Document> relay = relay();
+        relay.asFlowable().subscribe(new Consumer<Document>() {
+            @Override
+            public void accept(Document document) throws Exception {
+                emissions.incrementAndGet();
+            }
+        });
+        for (int i = 0; i < 3; i++) {
+            relay.update().blockingGet();
+        }
+
+        assertEquals(3, updates.get());
+        assertEquals(1, emissions.get());
+    }
+
+    @Test
+    public void replacesInvalidatedValues() {
+        StatefulRelay<Document> relay = relay();
+        relay.asFlowable().blockingFirst();
+
+        relay.invalidate();
+        for (int i = 0; i < 5; i++) {
+            assertFalse(relay.asFlowable().blockingFirst().isInvalidated());
+        }
+
+        assertEquals(1, updates.get());
+    }
+
+    @Test
+    public void reemitsEquivalentValuesPastTheHardTtl() {
+        ManualTicker ticker = new ManualTicker();
+        TestScheduler scheduler = new TestScheduler();
+        StatefulRelay<Document> relay = new StatefulRelay.Builder<Document>()
+                .withInitialization(new Document("a"))
+                .withUpdater(new Callable<Document>() {
+                    @Override
+                    public Document call() throws Exception {
+                        updates.incrementAndGet();
+                        return new Document("a");
+                    }
+                })
+                .withEquivalence(Equivalence.<Document>equals())
+                .withStaleWhileRevalidate(1, 2, TimeUnit.SECONDS)
+                .withTicker(ticker)
+                .withSubscribeScheduler(Schedulers.trampoline())
+                .withUpdateScheduler(scheduler)
+                .withDeliveryScheduler(Schedulers.trampoline())
+                .build();
+        relay.asFlowable().subscribe();
+        scheduler.triggerActions();
+        relay.update().subscribe();
+        scheduler.triggerActions();
+        assertEquals(1, updates.get());
+
+        // The stale value is filtered, subscribers wait for the refresh.
+        ticker.advance(3, TimeUnit.SECONDS);
+        TestSubscriber<Document> subscriber = relay.asFlowable().test();
+        subscriber.assertEmpty();
+        scheduler.triggerActions();
+        subscriber.assertValue(new Document("a"));
+        assertEquals(2, updates.get());
+    }
+}
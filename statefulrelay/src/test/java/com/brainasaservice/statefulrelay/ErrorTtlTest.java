@@ -0,0 +1,65 @@
+package com.brainasaservice.statefulrelay;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.annotations.NonNull;
+import io.reactivex.functions.Consumer;
+import io.reactivex.schedulers.Schedulers;
+
+import static org.junit.Assert.assertEquals;
+
+public class ErrorTtlTest {
+    private final ManualTicker ticker = new ManualTicker();
+
+    private final AtomicInteger attempts = new AtomicInteger();
+
+    private final AtomicInteger failures = new AtomicInteger();
+
+    private final StatefulRelay<Integer> relay = new StatefulRelay.Builder<Integer>()
+            .withInitialization(0)
+            .withUpdater(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    if (attempts.incrementAndGet() == 1) {
+                        throw new IOException("unavailable");
+                    }
+                    return attempts.get();
+                }
+            }, new Consumer<Throwable>() {
+                @Override
+                public void accept(@NonNull Throwable throwable) throws Exception {
+                    failures.incrementAndGet();
+                }
+            })
+            .withErrorTTL(10, TimeUnit.SECONDS)
+            .withTicker(ticker)
+            .withSubscribeScheduler(Schedulers.trampoline())
+            .withUpdateScheduler(Schedulers.trampoline())
+            .withDeliveryScheduler(Schedulers.trampoline())
+            .build();
+
+    @Test
+    public void failureSuppressesAttemptsForTheErrorTtl() {
+        assertEquals(Integer.valueOf(0), relay.asFlowable().blockingFirst());
+        relay.invalidate();
+        assertEquals(Integer.valueOf(0), relay.asFlowable().blockingFirst());
+        assertEquals(1, attempts.get());
+        assertEquals(1, failures.get());
+
+        // Invalidated again, but the failure is remembered.
+        relay.invalidate();
+        ticker.advance(10, TimeUnit.SECONDS);
+        assertEquals(Integer.valueOf(0), relay.asFlowable().blockingFirst());
+        assertEquals(1, attempts.get());
+
+        ticker.advance(1, TimeUnit.MILLISECONDS);
+        relay.asFlowable().subscribe();
+        assertEquals(2, attempts.get());
+        assertEquals(Integer.valueOf(2), relay.asFlowable().blockingFirst());
+    }
+}
@@ -0,0 +1,49 @@
+package com.brainasaservice.statefulrelay;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FrequencySketchTest {
+    @Test
+    public void estimatesAccessesUpToFifteen() {
+        FrequencySketch sketch = new FrequencySketch(512);
+        assertEquals(0, sketch.frequency("key"));
+        for (int i = 1; i <= 20; i++) {
+            sketch.increment("key");
+            assertEquals(Math.min(i, 15), sketch.frequency("key"));
+        }
+    }
+
+    @Test
+    public void separatesHotAndColdKeys() {
+        FrequencySketch sketch = new FrequencySketch(512);
+        for (int i = 0; i < 512; i++) {
+            sketch.increment(i);
+            if (i % 64 == 0) {
+                for (int j = 0; j < 8; j++) {
+                    sketch.increment("hot" + i);
+                }
+            }
+        }
+        for (int i = 0; i < 512; i += 64) {
+            assertTrue(sketch.frequency("hot" + i) >= 8);
+            assertTrue(sketch.frequency(i + 1) < 4);
+        }
+    }
+
+    @Test
+    public void halvesCountersAfterSampleSize() {
+        FrequencySketch sketch = new FrequencySketch(8);
+        for (int i = 0; i < 8; i++) {
+            sketch.increment("old");
+        }
+        assertEquals(8, sketch.frequency("old"));
+        // Sample size of ten times the capacity, the old key ages while new keys are recorded.
+        for (int i = 0; i < 200; i++) {
+            sketch.increment(i);
+        }
+        assertTrue(sketch.frequency("old") < 8);
+    }
+}
@@ -0,0 +1,128 @@
+package com.brainasaservice.statefulrelay;
+
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.schedulers.TestScheduler;
+
+import static org.junit.Assert.assertEquals;
+
+public class InvalidationBusTest {
+    private final TestScheduler scheduler = new TestScheduler();
+
+    private final AtomicInteger invalidations = new AtomicInteger();
+
+    private final AtomicInteger updates = new AtomicInteger();
+
+    private final Invalidatable value = new Invalidatable() {
+        @Override
+        public boolean isInvalidated() {
+            return false;
+        }
+
+        @Override
+        public void invalidate() {
+            invalidations.incrementAndGet();
+        }
+    };
+
+    private InvalidationBus.Builder bus() {
+        return new InvalidationBus.Builder()
+                .withDebounce(50, TimeUnit.MILLISECONDS)
+                .withBatchingWindow(200, TimeUnit.MILLISECONDS)
+                .withScheduler(scheduler)
+                .withTicker(new Ticker() {
+                    @Override
+                    public long read() {
+                        return scheduler.now(TimeUnit.NANOSECONDS);
+                    }
+                });
+    }
+
+    private StatefulRelay<Invalidatable> relay() {
+        StatefulRelay<Invalidatable> relay = new StatefulRelay.Builder<Invalidatable>()
+                .withInitialization(value)
+                .withUpdater(new Callable<Invalidatable>() {
+                    @Override
+                    public Invalidatable call() throws Exception {
+                        updates.incrementAndGet();
+                        return value;
+                    }
+                })
+                .withSubscribeScheduler(Schedulers.trampoline())
+                .withUpdateScheduler(Schedulers.trampoline())
+                .withMinimalThreadHops()
+                .withSingleFlight()
+                .build();
+        relay.asFlowable().blockingFirst();
+        return relay;
+    }
+
+    private void advance(long millis) {
+        scheduler.advanceTimeBy(millis, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void debounceCollapsesBursts() {
+        InvalidationBus bus = bus().build();
+        StatefulRelay<Invalidatable> relay = relay();
+
+        for (int i = 0; i < 10; i++) {
+            bus.post(relay);
+            advance(10);
+        }
+        assertEquals(1, bus.getPendingCount());
+        advance(39);
+        assertEquals(0, invalidations.get());
+        advance(1);
+        assertEquals(1, invalidations.get());
+        assertEquals(0, bus.getPendingCount());
+
+        bus.post(relay);
+        advance(50);
+        assertEquals(2, invalidations.get());
+    }
+
+    @Test
+    public void batchingWindowBoundsTheDelay() {
+        InvalidationBus bus = bus().build();
+        StatefulRelay<Invalidatable> relay = relay();
+
+        for (int i = 0; i < 20; i++) {
+            bus.post(relay);
+            advance(30);
+            // Flushed after 200ms although posts keep arriving within the debounce window.
+            assertEquals(i < 6 ? 0 : i < 13 ? 1 : 2, invalidations.get());
+        }
+    }
+
+    @Test
+    public void flushInvalidatesRightAway() {
+        InvalidationBus bus = bus().build();
+        StatefulRelay<Invalidatable> relay = relay();
+
+        bus.post(relay);
+        bus.flush();
+        assertEquals(1, invalidations.get());
+        advance(500);
+        assertEquals(1, invalidations.get());
+    }
+
+    @Test
+    public void eagerRefreshUpdatesOncePerBurst() {
+        InvalidationBus bus = bus().withEagerRefresh(true).build();
+        StatefulRelay<Invalidatable> relay = relay();
+        int initial = updates.get();
+
+        for (int i = 0; i < 10; i++) {
+            bus.post(relay);
+        }
+        advance(50);
+        assertEquals(initial + 1, updates.get());
+        assertEquals(0, invalidations.get());
+    }
+}
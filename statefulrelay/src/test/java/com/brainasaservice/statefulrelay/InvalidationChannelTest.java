@@ -0,0 +1,178 @@
+package com.brainasaservice.statefulrelay;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class InvalidationChannelTest {
+    private static final class Document implements Invalidatable {
+        private int invalidations;
+
+        @Override
+        public boolean isInvalidated() {
+            return invalidations > 0;
+        }
+
+        @Override
+        public synchronized void invalidate() {
+            invalidations++;
+        }
+    }
+
+    /**
+     * Delivers published invalidations to the listener of the transport it is connected to.
+     */
+    private static final class DirectTransport implements InvalidationTransport {
+        private DirectTransport peer;
+
+        private Listener listener;
+
+        @Override
+        public void publish(String key, long version) {
+            peer.listener.onInvalidation(key, version);
+        }
+
+        @Override
+        public void setListener(Listener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    public void dropsVersionsWhichAreNotNewer() throws Exception {
+        DirectTransport local = new DirectTransport();
+        DirectTransport remote = new DirectTransport();
+        local.peer = remote;
+        remote.peer = local;
+
+        InvalidationIndex remoteIndex = new InvalidationIndex();
+        Document document = new Document();
+        StatefulRelay<Document> relay = new StatefulRelay.Builder<Document>()
+                .withInitialization(document)
+                .withTags(remoteIndex, "account")
+                .build();
+        relay.asFlowable().timeout(5, TimeUnit.SECONDS).blockingFirst();
+
+        InvalidationChannel channel = new InvalidationChannel(new InvalidationIndex(), local);
+        new InvalidationChannel(remoteIndex, remote);
+        channel.invalidate("account", 2);
+        local.listener.onInvalidation("account", 2);
+        remote.listener.onInvalidation("account", 2);
+        remote.listener.onInvalidation("account", 1);
+
+        assertEquals(1, document.invalidations);
+        remote.listener.onInvalidation("account", 3);
+        assertEquals(2, document.invalidations);
+    }
+
+    @Test
+    public void unreachablePeerDoesNotAbortTheBatch() throws Exception {
+        UdpInvalidationTransport receiver = new UdpInvalidationTransport.Builder().build();
+        final List<String> received = new ArrayList<>();
+        final CountDownLatch done = new CountDownLatch(2);
+        receiver.setListener(new InvalidationTransport.Listener() {
+            @Override
+            public void onInvalidation(String key, long version) {
+                received.add(key + "@" + version);
+                done.countDown();
+            }
+        });
+        UdpInvalidationTransport sender = new UdpInvalidationTransport.Builder()
+                .withPeers(0, receiver.getPort())
+                .build();
+
+        sender.publish("a", 1);
+        sender.publish("b", 2);
+        sender.publish("a", 3);
+
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertEquals(2, received.size());
+        assertTrue(received.contains("a@3"));
+        assertTrue(received.contains("b@2"));
+        sender.close();
+        receiver.close();
+    }
+
+    @Test
+    public void remembersVersionsOfRecentKeysOnly() throws Exception {
+        DirectTransport local = new DirectTransport();
+        local.peer = new DirectTransport();
+        InvalidationIndex index = new InvalidationIndex();
+        Document document = new Document();
+        StatefulRelay<Document> relay = new StatefulRelay.Builder<Document>()
+                .withInitialization(document)
+                .withTags(index, "a")
+                .build();
+        relay.asFlowable().timeout(5, TimeUnit.SECONDS).blockingFirst();
+        InvalidationChannel channel = new InvalidationChannel(index, local, 2);
+
+        channel.onInvalidation("a", 1);
+        channel.onInvalidation("b", 1);
+        channel.onInvalidation("a", 1);
+        assertEquals(1, document.invalidations);
+
+        // Forgets the least recently seen key.
+        channel.onInvalidation("c", 1);
+        channel.onInvalidation("a", 1);
+        assertEquals(1, document.invalidations);
+        channel.onInvalidation("d", 1);
+        channel.onInvalidation("e", 1);
+        channel.onInvalidation("a", 1);
+        assertEquals(2, document.invalidations);
+    }
+
+    @Test
+    public void failingListenerDoesNotStopTheReceiver() throws Exception {
+        final List<Throwable> reported = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread.UncaughtExceptionHandler handler = Thread.getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+            @Override
+            public void uncaughtException(Thread thread, Throwable throwable) {
+                reported.add(throwable);
+            }
+        });
+        UdpInvalidationTransport receiver = new UdpInvalidationTransport.Builder().build();
+        UdpInvalidationTransport sender = new UdpInvalidationTransport.Builder()
+                .withPeers(receiver.getPort())
+                .build();
+        try {
+            final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+            final CountDownLatch done = new CountDownLatch(2);
+            receiver.setListener(new InvalidationTransport.Listener() {
+                @Override
+                public void onInvalidation(String key, long version) {
+                    if (key.equals("failing")) {
+                        throw new IllegalStateException();
+                    }
+                    received.add(key);
+                    done.countDown();
+                }
+            });
+
+            sender.publish("failing", 1);
+            sender.publish("a", 1);
+            Thread.sleep(200);
+            sender.publish("b", 1);
+
+            assertTrue(done.await(2, TimeUnit.SECONDS));
+            assertEquals(2, received.size());
+            assertEquals(1, reported.size());
+            assertTrue(reported.get(0) instanceof IllegalStateException);
+        } finally {
+            sender.close();
+            receiver.close();
+            Thread.setDefaultUncaughtExceptionHandler(handler);
+        }
+    }
+}
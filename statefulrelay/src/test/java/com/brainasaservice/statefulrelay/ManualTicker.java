@@ -0,0 +1,21 @@
+package com.brainasaservice.statefulrelay;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ticker advanced by hand, so tests drive expiry without sleeping.
+ */
+
+final class ManualTicker implements Ticker {
+    private final AtomicLong now = new AtomicLong();
+
+    @Override
+    public long read() {
+        return now.get();
+    }
+
+    void advance(long duration, TimeUnit timeUnit) {
+        now.addAndGet(timeUnit.toNanos(duration));
+    }
+}
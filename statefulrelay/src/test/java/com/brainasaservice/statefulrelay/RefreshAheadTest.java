@@ -0,0 +1,89 @@
+package com.brainasaservice.statefulrelay;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.disposables.Disposable;
+import io.reactivex.functions.Consumer;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.schedulers.TestScheduler;
+
+import static org.junit.Assert.assertEquals;
+
+public class RefreshAheadTest {
+    private final TestScheduler scheduler = new TestScheduler();
+
+    private final Ticker ticker = new Ticker() {
+        @Override
+        public long read() {
+            return scheduler.now(TimeUnit.NANOSECONDS);
+        }
+    };
+
+    private final AtomicInteger updates = new AtomicInteger();
+
+    private final Consumer<Throwable> ignoreErrors = new Consumer<Throwable>() {
+        @Override
+        public void accept(Throwable throwable) throws Exception {
+        }
+    };
+
+    @Test
+    public void refreshesWhileSubscribedFromTheFirstSubscription() throws Exception {
+        StatefulRelay<Integer> relay = new StatefulRelay.Builder<Integer>()
+                .withInitialization(0)
+                .withUpdater(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        return updates.incrementAndGet();
+                    }
+                })
+                .withTTL(300, TimeUnit.MILLISECONDS)
+                .withRefreshAhead(100, TimeUnit.MILLISECONDS)
+                .withTicker(ticker)
+                .withSubscribeScheduler(Schedulers.trampoline())
+                .withUpdateScheduler(scheduler)
+                .withDeliveryScheduler(Schedulers.trampoline())
+                .build();
+
+        // The initialization is still pending on the update scheduler.
+        Disposable subscription = relay.asFlowable().subscribe();
+        scheduler.advanceTimeBy(1100, TimeUnit.MILLISECONDS);
+        subscription.dispose();
+
+        // The initial value has never been updated and is refreshed right away, then 100 ms
+        // ahead of every expiry.
+        assertEquals(6, updates.get());
+    }
+
+    @Test
+    public void keepsRefreshingAfterFailedRefreshes() throws Exception {
+        StatefulRelay<Integer> relay = new StatefulRelay.Builder<Integer>()
+                .withInitialization(0)
+                .withUpdater(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        updates.incrementAndGet();
+                        throw new IOException();
+                    }
+                }, ignoreErrors)
+                .withTTL(300, TimeUnit.MILLISECONDS)
+                .withRefreshAhead(100, TimeUnit.MILLISECONDS)
+                .withTicker(ticker)
+                .withSubscribeScheduler(Schedulers.trampoline())
+                .withUpdateScheduler(scheduler)
+                .withDeliveryScheduler(Schedulers.trampoline())
+                .build();
+
+        Disposable subscription = relay.asFlowable().subscribe();
+        scheduler.advanceTimeBy(2000, TimeUnit.MILLISECONDS);
+        subscription.dispose();
+
+        // Failed refreshes retry after the refresh interval.
+        assertEquals(11, updates.get());
+    }
+}
@@ -0,0 +1,118 @@
+package com.brainasaservice.statefulrelay;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RelayGraphTest {
+    private final List<String> log = Collections.synchronizedList(new ArrayList<String>());
+
+    private StatefulRelay<String> relay(final String name, final CountDownLatch gate) {
+        StatefulRelay<String> relay = new StatefulRelay.Builder<String>()
+                .withInitialization(name)
+                .withUpdater(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        gate.await(5, TimeUnit.SECONDS);
+                        log.add(name);
+                        return name;
+                    }
+                })
+                .withSingleFlight()
+                .build();
+        relay.asFlowable().timeout(5, TimeUnit.SECONDS).blockingFirst();
+        return relay;
+    }
+
+    private StatefulRelay<String> relay(String name) {
+        return relay(name, new CountDownLatch(0));
+    }
+
+    @Test
+    public void recomputesDiamondOnceInTopologicalOrder() throws Exception {
+        StatefulRelay<String> a = relay("A");
+        StatefulRelay<String> b = relay("B");
+        StatefulRelay<String> c = relay("C");
+        StatefulRelay<String> d = relay("D");
+        RelayGraph graph = new RelayGraph(RelayGraph.Mode.RECOMPUTE);
+        graph.dependsOn(b, a);
+        graph.dependsOn(c, a);
+        graph.dependsOn(d, b, c);
+
+        a.update().timeout(5, TimeUnit.SECONDS).blockingGet();
+        Thread.sleep(300);
+
+        assertEquals(4, log.size());
+        assertEquals("A", log.get(0));
+        assertEquals("D", log.get(3));
+    }
+
+    @Test
+    public void awaitsUpdatesInFlightAndRecomputesAfterwards() throws Exception {
+        CountDownLatch gate = new CountDownLatch(1);
+        StatefulRelay<String> a = relay("A");
+        StatefulRelay<String> b = relay("B", gate);
+        StatefulRelay<String> c = relay("C");
+        RelayGraph graph = new RelayGraph(RelayGraph.Mode.RECOMPUTE);
+        graph.dependsOn(b, a);
+        graph.dependsOn(c, b);
+
+        // Reads A before its update.
+        b.update();
+        a.update().timeout(5, TimeUnit.SECONDS).blockingGet();
+        Thread.sleep(100);
+        assertEquals(Collections.singletonList("A"), log);
+
+        gate.countDown();
+        Thread.sleep(300);
+        assertEquals(4, log.size());
+        assertEquals("B", log.get(1));
+        assertEquals("B", log.get(2));
+        assertEquals("C", log.get(3));
+    }
+
+    @Test
+    public void invalidatesDependents() throws Exception {
+        StatefulRelay<String> a = relay("A");
+        StatefulRelay<String> b = relay("B");
+        RelayGraph graph = new RelayGraph();
+        graph.dependsOn(b, a);
+
+        a.update().timeout(5, TimeUnit.SECONDS).blockingGet();
+        assertEquals(Collections.singletonList("A"), log);
+        b.asFlowable().subscribe();
+        Thread.sleep(100);
+        assertEquals(2, log.size());
+        assertEquals("B", log.get(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsCycles() throws Exception {
+        StatefulRelay<String> a = relay("A");
+        StatefulRelay<String> b = relay("B");
+        RelayGraph graph = new RelayGraph();
+        graph.dependsOn(b, a);
+        graph.dependsOn(a, b);
+    }
+
+    @Test
+    public void recomputeRequiresSingleFlight() throws Exception {
+        StatefulRelay<String> a = relay("A");
+        StatefulRelay<String> b = new StatefulRelay.Builder<String>().withInitialization("B").build();
+        try {
+            new RelayGraph(RelayGraph.Mode.RECOMPUTE).dependsOn(b, a);
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("single-flight"));
+            return;
+        }
+        throw new AssertionError("Expected IllegalArgumentException");
+    }
+}
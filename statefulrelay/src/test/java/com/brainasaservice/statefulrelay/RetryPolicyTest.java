@@ -0,0 +1,89 @@
+package com.brainasaservice.statefulrelay;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.Flowable;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.functions.Predicate;
+import io.reactivex.schedulers.TestScheduler;
+import io.reactivex.subscribers.TestSubscriber;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RetryPolicyTest {
+    private final TestScheduler scheduler = new TestScheduler();
+
+    private final AtomicInteger attempts = new AtomicInteger();
+
+    private Flowable<Integer> failing(final Exception error) {
+        return Flowable.fromCallable(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                attempts.incrementAndGet();
+                throw error;
+            }
+        });
+    }
+
+    @Test
+    public void stopsAfterMaxAttempts() {
+        RetryPolicy policy = new RetryPolicy.Builder()
+                .withMaxAttempts(3)
+                .withBackoff(100, 1000, TimeUnit.MILLISECONDS)
+                .build();
+        TestSubscriber<Integer> subscriber = failing(new IOException())
+                .retryWhen(policy.toHandler(scheduler))
+                .test();
+        assertEquals(1, attempts.get());
+
+        // The backoffs are bounded by 100 ms and 200 ms.
+        scheduler.advanceTimeBy(100, TimeUnit.MILLISECONDS);
+        assertTrue(attempts.get() >= 2);
+        scheduler.advanceTimeBy(200, TimeUnit.MILLISECONDS);
+        assertEquals(3, attempts.get());
+
+        scheduler.advanceTimeBy(1, TimeUnit.MINUTES);
+        assertEquals(3, attempts.get());
+        subscriber.assertFailure(IOException.class);
+    }
+
+    @Test
+    public void failsImmediatelyOnErrorsWhichAreNotRetryable() {
+        RetryPolicy policy = new RetryPolicy.Builder()
+                .withMaxAttempts(5)
+                .withRetryable(new Predicate<Throwable>() {
+                    @Override
+                    public boolean test(@NonNull Throwable throwable) throws Exception {
+                        return throwable instanceof IOException;
+                    }
+                })
+                .build();
+        TestSubscriber<Integer> subscriber = failing(new IllegalStateException())
+                .retryWhen(policy.toHandler(scheduler))
+                .test();
+
+        subscriber.assertFailure(IllegalStateException.class);
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    public void backoffStaysWithinItsBound() {
+        RetryPolicy policy = new RetryPolicy.Builder()
+                .withBackoff(100, 5000, TimeUnit.MILLISECONDS)
+                .withMultiplier(3)
+                .build();
+        for (int retry = 1; retry <= 10; retry++) {
+            double bound = Math.min(5000, 100 * Math.pow(3, retry - 1));
+            for (int i = 0; i < 1000; i++) {
+                long backoff = policy.backoff(retry);
+                assertTrue(retry + ": " + backoff, backoff >= 0 && backoff <= bound);
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.brainasaservice.statefulrelay;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.reactivex.Maybe;
+import io.reactivex.functions.Function;
+import io.reactivex.schedulers.Schedulers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StatefulRelayCacheTest {
+    @Test
+    public void loaderRunsOnUpdateScheduler() throws Exception {
+        final AtomicReference<String> loaderThread = new AtomicReference<>();
+        StatefulRelayCache<String, String> cache = new StatefulRelayCache.Builder<String, String>()
+                .withLoader(new Function<String, Maybe<String>>() {
+                    @Override
+                    public Maybe<String> apply(String key) throws Exception {
+                        loaderThread.set(Thread.currentThread().getName());
+                        return Maybe.just(key.toUpperCase());
+                    }
+                })
+                .withTemplate(new StatefulRelay.Builder<String>()
+                        .withSubscribeScheduler(Schedulers.trampoline())
+                        .withUpdateScheduler(Schedulers.single()))
+                .build();
+
+        assertEquals("A", cache.get("a").timeout(5, TimeUnit.SECONDS).blockingFirst());
+        assertTrue(loaderThread.get(), loaderThread.get().startsWith("RxSingleScheduler"));
+    }
+
+    @Test
+    public void templateTagsApplyToEveryRelay() {
+        InvalidationIndex index = new InvalidationIndex();
+        StatefulRelayCache<String, String> cache = new StatefulRelayCache.Builder<String, String>()
+                .withLoader(new Function<String, Maybe<String>>() {
+                    @Override
+                    public Maybe<String> apply(String key) throws Exception {
+                        return Maybe.just(key);
+                    }
+                })
+                .withTemplate(new StatefulRelay.Builder<String>()
+                        .withTags(index, "account"))
+                .build();
+        assertEquals(0, index.invalidateTag("account"));
+
+        StatefulRelay<String> a = cache.getRelay("a");
+        StatefulRelay<String> b = cache.getRelay("b");
+        assertEquals(2, index.invalidateTag("account"));
+        assertEquals(a, cache.getRelay("a"));
+        assertEquals(b, cache.getRelay("b"));
+    }
+}
@@ -0,0 +1,247 @@
+package com.brainasaservice.statefulrelay;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.Maybe;
+import io.reactivex.functions.Predicate;
+
+import static org.junit.Assert.assertEquals;
+
+public class StatefulRelayConcurrencyTest {
+    private static final int THREADS = 16;
+
+    private final AtomicInteger initializations = new AtomicInteger();
+
+    private final AtomicInteger updates = new AtomicInteger();
+
+    private final AtomicInteger startedUpdates = new AtomicInteger();
+
+    private final CountDownLatch releaseUpdate = new CountDownLatch(1);
+
+    private StatefulRelay<Integer> relay() {
+        return builder().withSingleFlight().build();
+    }
+
+    private StatefulRelay.Builder<Integer> builder() {
+        return new StatefulRelay.Builder<Integer>()
+                .withInitialization(Maybe.fromCallable(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        initializations.incrementAndGet();
+                        return 0;
+                    }
+                }))
+                .withUpdater(Maybe.fromCallable(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        startedUpdates.incrementAndGet();
+                        releaseUpdate.await();
+                        return updates.incrementAndGet();
+                    }
+                }));
+    }
+
+    private static void runConcurrently(final Runnable task) throws Exception {
+        final CyclicBarrier barrier = new CyclicBarrier(THREADS);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        barrier.await();
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                    task.run();
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    @Test
+    public void concurrentSubscribersInitializeOnce() throws Exception {
+        final StatefulRelay<Integer> relay = relay();
+        runConcurrently(new Runnable() {
+            @Override
+            public void run() {
+                relay.asFlowable().subscribe();
+            }
+        });
+
+        assertEquals(Integer.valueOf(0), relay.asFlowable().timeout(5, TimeUnit.SECONDS).blockingFirst());
+        assertEquals(1, initializations.get());
+        assertEquals(0, updates.get());
+    }
+
+    @Test
+    public void concurrentInvalidationsUpdateOnce() throws Exception {
+        final StatefulRelay<Integer> relay = relay();
+        assertEquals(Integer.valueOf(0), relay.asFlowable().timeout(5, TimeUnit.SECONDS).blockingFirst());
+
+        runConcurrently(new Runnable() {
+            @Override
+            public void run() {
+                relay.invalidate();
+                relay.asFlowable().subscribe();
+            }
+        });
+        releaseUpdate.countDown();
+
+        assertEquals(Integer.valueOf(1), relay.asFlowable().filter(new Predicate<Integer>() {
+            @Override
+            public boolean test(Integer value) throws Exception {
+                return value > 0;
+            }
+        }).timeout(5, TimeUnit.SECONDS).blockingFirst());
+        Thread.sleep(100);
+        assertEquals(1, initializations.get());
+        assertEquals(1, updates.get());
+    }
+
+    @Test
+    public void concurrentForcedUpdatesShareOneFetch() throws Exception {
+        final StatefulRelay<Integer> relay = relay();
+        assertEquals(Integer.valueOf(0), relay.asFlowable().timeout(5, TimeUnit.SECONDS).blockingFirst());
+
+        final List<Maybe<Integer>> results = Collections.synchronizedList(new ArrayList<Maybe<Integer>>());
+        runConcurrently(new Runnable() {
+            @Override
+            public void run() {
+                results.add(relay.update());
+            }
+        });
+        releaseUpdate.countDown();
+
+        assertEquals(THREADS, results.size());
+        for (Maybe<Integer> result : results) {
+            assertEquals(Integer.valueOf(1), result.timeout(5, TimeUnit.SECONDS).blockingGet());
+        }
+        assertEquals(1, updates.get());
+    }
+
+    @Test
+    public void concurrentSubscribersInitializeOnceWithoutSingleFlight() throws Exception {
+        final StatefulRelay<Integer> relay = builder().build();
+        runConcurrently(new Runnable() {
+            @Override
+            public void run() {
+                relay.asFlowable().subscribe();
+            }
+        });
+
+        assertEquals(Integer.valueOf(0), relay.asFlowable().timeout(5, TimeUnit.SECONDS).blockingFirst());
+        assertEquals(1, initializations.get());
+        assertEquals(0, startedUpdates.get());
+    }
+
+    @Test
+    public void concurrentInvalidationsStartOneUpdateWithoutSingleFlight() throws Exception {
+        final StatefulRelay<Integer> relay = builder().build();
+        assertEquals(Integer.valueOf(0), relay.asFlowable().timeout(5, TimeUnit.SECONDS).blockingFirst());
+
+        runConcurrently(new Runnable() {
+            @Override
+            public void run() {
+                relay.invalidate();
+                relay.asFlowable().subscribe();
+                relay.update();
+            }
+        });
+        Thread.sleep(100);
+        assertEquals(1, startedUpdates.get());
+        relay.invalidate();
+        releaseUpdate.countDown();
+
+        // The invalidation arriving while the update was in flight is kept for the next access.
+        relay.asFlowable().filter(new Predicate<Integer>() {
+            @Override
+            public boolean test(Integer value) throws Exception {
+                return value > 0;
+            }
+        }).timeout(5, TimeUnit.SECONDS).blockingFirst();
+        Thread.sleep(100);
+        relay.asFlowable().timeout(5, TimeUnit.SECONDS).blockingFirst();
+        Thread.sleep(100);
+        assertEquals(1, initializations.get());
+        assertEquals(2, startedUpdates.get());
+    }
+
+    @Test
+    public void invalidatedValuesAreReplacedOnce() throws Exception {
+        invalidatedValuesAreReplacedOnce(false);
+        invalidatedValuesAreReplacedOnce(true);
+    }
+
+    private void invalidatedValuesAreReplacedOnce(boolean singleFlight) throws Exception {
+        final AtomicInteger fetches = new AtomicInteger();
+        StatefulRelay.Builder<Version> builder = new StatefulRelay.Builder<Version>()
+                .withInitialization(new Version(0))
+                .withUpdater(new Callable<Version>() {
+                    @Override
+                    public Version call() throws Exception {
+                        return new Version(fetches.incrementAndGet());
+                    }
+                });
+        if (singleFlight) {
+            builder.withSingleFlight();
+        }
+        final StatefulRelay<Version> relay = builder.build();
+        relay.asFlowable().timeout(5, TimeUnit.SECONDS).blockingFirst();
+
+        for (int round = 1; round <= 50; round++) {
+            final Version current = relay.asFlowable().timeout(5, TimeUnit.SECONDS).blockingFirst();
+            relay.invalidate();
+            runConcurrently(new Runnable() {
+                @Override
+                public void run() {
+                    // Subscribers keep arriving while the new value is delivered.
+                    while (relay.asFlowable().timeout(5, TimeUnit.SECONDS).blockingFirst() == current) {
+                        relay.asFlowable().subscribe();
+                    }
+                }
+            });
+            Thread.sleep(20);
+            assertEquals(round, fetches.get());
+        }
+    }
+
+    private static final class Version implements Invalidatable {
+        private final int number;
+
+        private volatile boolean invalidated;
+
+        Version(int number) {
+            this.number = number;
+        }
+
+        @Override
+        public boolean isInvalidated() {
+            return invalidated;
+        }
+
+        @Override
+        public void invalidate() {
+            invalidated = true;
+        }
+
+        @Override
+        public String toString() {
+            return "Version " + number;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.brainasaservice.statefulrelay;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.Scheduler;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.schedulers.TestScheduler;
+import io.reactivex.subscribers.TestSubscriber;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TimeToLiveTest {
+    private final ManualTicker ticker = new ManualTicker();
+
+    private final AtomicInteger updates = new AtomicInteger();
+
+    private StatefulRelay.Builder<Integer> relay(Scheduler updateScheduler) {
+        return new StatefulRelay.Builder<Integer>()
+                .withInitialization(0)
+                .withUpdater(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        return updates.incrementAndGet();
+                    }
+                })
+                .withTicker(ticker)
+                .withSubscribeScheduler(Schedulers.trampoline())
+                .withUpdateScheduler(updateScheduler)
+                .withDeliveryScheduler(Schedulers.trampoline());
+    }
+
+    @Test
+    public void updatesValuesOlderThanTheTtl() {
+        StatefulRelay<Integer> relay = relay(Schedulers.trampoline())
+                .withTTL(1, TimeUnit.SECONDS)
+                .build();
+        // The initial value has never been updated and is refreshed on the first access.
+        assertEquals(Integer.valueOf(1), relay.asFlowable().blockingFirst());
+
+        ticker.advance(1, TimeUnit.SECONDS);
+        assertEquals(Integer.valueOf(1), relay.asFlowable().blockingFirst());
+        assertEquals(1, updates.get());
+
+        ticker.advance(1, TimeUnit.MILLISECONDS);
+        assertEquals(Integer.valueOf(2), relay.asFlowable().blockingFirst());
+        assertEquals(2, updates.get());
+    }
+
+    @Test
+    public void servesStaleValuesUntilTheHardTtl() {
+        TestScheduler scheduler = new TestScheduler();
+        StatefulRelay<Integer> relay = relay(scheduler)
+                .withStaleWhileRevalidate(1, 2, TimeUnit.SECONDS)
+                .build();
+        relay.asFlowable().subscribe();
+        scheduler.triggerActions();
+        relay.update().subscribe();
+        scheduler.triggerActions();
+        assertEquals(1, updates.get());
+
+        // Past the soft TTL the stale value is served while it is refreshed.
+        ticker.advance(1500, TimeUnit.MILLISECONDS);
+        TestSubscriber<Integer> stale = relay.asFlowable().test();
+        stale.assertValue(1);
+        scheduler.triggerActions();
+        stale.assertValues(1, 2);
+
+        // Past the hard TTL subscribers wait for the refresh.
+        ticker.advance(2500, TimeUnit.MILLISECONDS);
+        TestSubscriber<Integer> expired = relay.asFlowable().test();
+        expired.assertEmpty();
+        scheduler.triggerActions();
+        expired.assertValue(3);
+    }
+
+    @Test
+    public void jitterShortensTheTtlWithinItsBound() {
+        StatefulRelay<Integer> relay = relay(Schedulers.trampoline())
+                .withTTL(1000, TimeUnit.MILLISECONDS)
+                .withTTLJitter(0.5f)
+                .build();
+        relay.asFlowable().blockingFirst();
+
+        Set<Long> expiries = new HashSet<>();
+        for (int round = 0; round < 20; round++) {
+            int before = updates.get();
+            long age = 0;
+            while (updates.get() == before) {
+                ticker.advance(50, TimeUnit.MILLISECONDS);
+                age += 50;
+                relay.asFlowable().blockingFirst();
+            }
+            // The TTL lies within (500 ms, 1000 ms], so the value is updated in one of the steps
+            // from 550 ms to 1050 ms.
+            assertTrue("age: " + age, age > 500 && age <= 1050);
+            expiries.add(age);
+        }
+        assertTrue("expiries: " + expiries, expiries.size() > 1);
+    }
+}
@@ -0,0 +1,99 @@
+package com.brainasaservice.statefulrelay;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.disposables.Disposable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TimingWheelTest {
+    // 4 slots on 2 levels span 16 ticks, later deadlines are parked on the top level.
+    private final TimingWheel wheel = new TimingWheel.Builder()
+            .withTick(10, TimeUnit.MILLISECONDS)
+            .withWheelSize(4, 2)
+            .build();
+
+    @After
+    public void tearDown() {
+        wheel.shutdown();
+    }
+
+    @Test
+    public void firesTimersOnAllLevelsAfterTheirDelay() throws Exception {
+        final long[] delays = {0, 25, 70, 150, 420};
+        final ConcurrentMap<Long, Long> fired = new ConcurrentHashMap<>();
+        final CountDownLatch latch = new CountDownLatch(delays.length);
+        final long start = System.nanoTime();
+        for (final long delay : delays) {
+            wheel.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    fired.put(delay, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                    latch.countDown();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        for (long delay : delays) {
+            long elapsed = fired.get(delay);
+            assertTrue("Timer of " + delay + "ms fired after " + elapsed + "ms", elapsed >= delay);
+            assertTrue("Timer of " + delay + "ms fired after " + elapsed + "ms", elapsed < delay + 200);
+        }
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void cancelledTimersDoNotFire() throws Exception {
+        final AtomicInteger runs = new AtomicInteger();
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+            }
+        };
+        Disposable early = wheel.schedule(task, 50, TimeUnit.MILLISECONDS);
+        Disposable late = wheel.schedule(task, 300, TimeUnit.MILLISECONDS);
+        wheel.schedule(task, 100, TimeUnit.MILLISECONDS);
+        assertEquals(3, wheel.size());
+
+        early.dispose();
+        Thread.sleep(200);
+        late.dispose();
+        assertEquals(0, wheel.size());
+        Thread.sleep(300);
+
+        assertEquals(1, runs.get());
+        assertTrue(early.isDisposed());
+        assertTrue(late.isDisposed());
+    }
+
+    @Test
+    public void manyTimersFireExactlyOnce() throws Exception {
+        final int count = 2000;
+        final AtomicInteger runs = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(count);
+        for (int i = 0; i < count; i++) {
+            wheel.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    runs.incrementAndGet();
+                    latch.countDown();
+                }
+            }, i % 300, TimeUnit.MILLISECONDS);
+        }
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Thread.sleep(50);
+        assertEquals(count, runs.get());
+        assertEquals(0, wheel.size());
+    }
+}
@@ -0,0 +1,140 @@
+package com.brainasaservice.statefulrelay;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Maybe;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.functions.Function;
+import io.reactivex.schedulers.Schedulers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TinyLfuEvictionTest {
+    private final StatefulRelayCache<Integer, Integer> cache = cache(100);
+
+    private static StatefulRelayCache<Integer, Integer> cache(long maximumSize) {
+        return new StatefulRelayCache.Builder<Integer, Integer>()
+                .withLoader(new Function<Integer, Maybe<Integer>>() {
+                    @Override
+                    public Maybe<Integer> apply(Integer key) throws Exception {
+                        return Maybe.just(key);
+                    }
+                })
+                .withTemplate(new StatefulRelay.Builder<Integer>()
+                        .withSubscribeScheduler(Schedulers.trampoline()))
+                .withMaximumSize(maximumSize)
+                .build();
+    }
+
+    @Test
+    public void keepsFrequentlyAccessedRelays() {
+        List<StatefulRelay<Integer>> hot = new ArrayList<>();
+        for (int key = 0; key < 10; key++) {
+            hot.add(cache.getRelay(key));
+        }
+        for (int round = 0; round < 5; round++) {
+            for (int key = 0; key < 10; key++) {
+                cache.getRelay(key);
+            }
+        }
+        for (int key = 1000; key < 2000; key++) {
+            cache.getRelay(key);
+        }
+
+        assertEquals(100, cache.size());
+        for (int key = 0; key < 10; key++) {
+            assertSame(hot.get(key), cache.getRelay(key));
+        }
+    }
+
+    @Test
+    public void neverEvictsRelaysWithSubscribers() {
+        StatefulRelay<Integer> pinned = cache.getRelay(0);
+        Disposable subscription = cache.get(0).subscribe();
+        for (int key = 1000; key < 2000; key++) {
+            cache.getRelay(key);
+        }
+        assertSame(pinned, cache.getRelay(0));
+
+        subscription.dispose();
+        for (int key = 2000; key < 3000; key++) {
+            cache.getRelay(key);
+        }
+        assertEquals(100, cache.size());
+    }
+
+    @Test
+    public void staysBoundedUnderConcurrentAccess() throws Exception {
+        final int threads = 8;
+        final CyclicBarrier barrier = new CyclicBarrier(threads);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final Random random = new Random(t);
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        barrier.await(5, TimeUnit.SECONDS);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                    for (int i = 0; i < 20000; i++) {
+                        cache.getRelay(random.nextInt(1000));
+                    }
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        for (Thread worker : workers) {
+            worker.join(10000);
+        }
+
+        assertTrue("Cache grew to " + cache.size(), cache.size() <= 100 + threads);
+    }
+
+    @Test
+    public void staysWithinTinyMaximumSizes() {
+        for (long maximumSize = 1; maximumSize <= 3; maximumSize++) {
+            StatefulRelayCache<Integer, Integer> cache = cache(maximumSize);
+            for (int key = 0; key < 10; key++) {
+                cache.getRelay(key);
+            }
+            assertEquals(maximumSize, cache.size());
+        }
+    }
+
+    @Test
+    public void pinnedRelaysCountTowardsTheMaximum() {
+        List<StatefulRelay<Integer>> pinned = new ArrayList<>();
+        List<Disposable> subscriptions = new ArrayList<>();
+        for (int key = 0; key < 50; key++) {
+            pinned.add(cache.getRelay(key));
+            subscriptions.add(cache.get(key).subscribe());
+        }
+        for (int key = 1000; key < 3000; key++) {
+            cache.getRelay(key);
+        }
+        assertEquals(100, cache.size());
+        for (int key = 0; key < 50; key++) {
+            assertSame(pinned.get(key), cache.getRelay(key));
+        }
+
+        // Unpinned relays compete again, the cache stays within its maximum.
+        for (Disposable subscription : subscriptions) {
+            subscription.dispose();
+        }
+        for (int key = 3000; key < 4000; key++) {
+            cache.getRelay(key);
+        }
+        assertEquals(100, cache.size());
+    }
+}
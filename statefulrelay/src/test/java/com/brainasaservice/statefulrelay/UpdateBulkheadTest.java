@@ -0,0 +1,199 @@
+package com.brainasaservice.statefulrelay;
+
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.Maybe;
+import io.reactivex.functions.Consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class UpdateBulkheadTest {
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private final AtomicInteger calls = new AtomicInteger();
+
+    private final Callable<Integer> blockingCall = new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+            calls.incrementAndGet();
+            release.await(3, TimeUnit.SECONDS);
+            return 1;
+        }
+    };
+
+    @Test
+    public void timeoutsFireWhileAllThreadsAreBusy() throws Exception {
+        final CountDownLatch timedOut = new CountDownLatch(1);
+        UpdateBulkhead bulkhead = new UpdateBulkhead.Builder()
+                .withMaxConcurrency(1)
+                .build();
+        StatefulRelay<Integer> relay = new StatefulRelay.Builder<Integer>()
+                .withInitialization(0)
+                .withUpdater(blockingCall)
+                .withBulkhead(bulkhead)
+                .withUpdateTimeout(100, TimeUnit.MILLISECONDS, new Consumer<TimeoutException>() {
+                    @Override
+                    public void accept(TimeoutException e) throws Exception {
+                        timedOut.countDown();
+                    }
+                })
+                .build();
+
+        assertEquals(Integer.valueOf(0), relay.asFlowable().timeout(5, TimeUnit.SECONDS).blockingFirst());
+        relay.update();
+
+        assertTrue(timedOut.await(1, TimeUnit.SECONDS));
+        release.countDown();
+        bulkhead.shutdown();
+    }
+
+    @Test
+    public void initializationsAreAdmitted() throws Exception {
+        UpdateBulkhead bulkhead = new UpdateBulkhead.Builder()
+                .withMaxConcurrency(1)
+                .withQueueSize(1)
+                .build();
+        for (int i = 0; i < 5; i++) {
+            new StatefulRelay.Builder<Integer>()
+                    .withInitialization(blockingCall)
+                    .withBulkhead(bulkhead)
+                    .build()
+                    .asFlowable()
+                    .subscribe();
+        }
+        Thread.sleep(200);
+
+        assertEquals(2, bulkhead.getAdmittedCount());
+        assertEquals(3, bulkhead.getOverflowCount());
+        assertEquals(1, calls.get());
+        release.countDown();
+        bulkhead.shutdown();
+    }
+
+    @Test
+    public void dropDiscardsTheInvalidationWithSingleFlight() throws Exception {
+        UpdateBulkhead bulkhead = new UpdateBulkhead.Builder()
+                .withMaxConcurrency(1)
+                .withQueueSize(0)
+                .withOverflow(UpdateBulkhead.Overflow.DROP)
+                .build();
+        StatefulRelay<Integer> blocker = new StatefulRelay.Builder<Integer>()
+                .withInitialization(blockingCall)
+                .withBulkhead(bulkhead)
+                .build();
+        final AtomicInteger updates = new AtomicInteger();
+        StatefulRelay<Integer> dropping = new StatefulRelay.Builder<Integer>()
+                .withInitialization(0)
+                .withUpdater(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        return updates.incrementAndGet();
+                    }
+                })
+                .withSingleFlight()
+                .withBulkhead(bulkhead)
+                .build();
+        assertEquals(Integer.valueOf(0), dropping.asFlowable().timeout(5, TimeUnit.SECONDS).blockingFirst());
+        // The initialization's permit is released after its value has been delivered.
+        awaitAdmitted(bulkhead, 0);
+        blocker.asFlowable().subscribe();
+        awaitAdmitted(bulkhead, 1);
+
+        dropping.invalidate();
+        dropping.asFlowable().subscribe();
+        release.countDown();
+        Thread.sleep(100);
+        dropping.asFlowable().subscribe();
+        Thread.sleep(100);
+
+        assertEquals(0, updates.get());
+        assertEquals(1, bulkhead.getOverflowCount());
+        bulkhead.shutdown();
+    }
+
+    @Test
+    public void rejectedUpdatesReturnTheirRatePermit() throws Exception {
+        UpdateBulkhead bulkhead = new UpdateBulkhead.Builder()
+                .withMaxConcurrency(1)
+                .withQueueSize(0)
+                .build();
+        UpdateRateLimiter limiter = new UpdateRateLimiter.Builder()
+                .withRate(1, 1, TimeUnit.SECONDS)
+                .withTicker(new ManualTicker())
+                .build();
+        StatefulRelay<Integer> blocker = new StatefulRelay.Builder<Integer>()
+                .withInitialization(blockingCall)
+                .withBulkhead(bulkhead)
+                .build();
+        final AtomicInteger updates = new AtomicInteger();
+        StatefulRelay<Integer> limited = new StatefulRelay.Builder<Integer>()
+                .withInitialization(0)
+                .withUpdater(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        return updates.incrementAndGet();
+                    }
+                })
+                .withRateLimiter(limiter)
+                .withBulkhead(bulkhead)
+                .build();
+        assertEquals(Integer.valueOf(0), limited.asFlowable().timeout(5, TimeUnit.SECONDS).blockingFirst());
+        awaitAdmitted(bulkhead, 0);
+        blocker.asFlowable().subscribe();
+        awaitAdmitted(bulkhead, 1);
+
+        limited.invalidate();
+        limited.asFlowable().subscribe();
+        assertEquals(1, bulkhead.getOverflowCount());
+        release.countDown();
+        awaitAdmitted(bulkhead, 0);
+
+        // The ticker has not moved, the update runs on the permit returned by the rejection.
+        assertEquals(Integer.valueOf(1), limited.update().timeout(5, TimeUnit.SECONDS).blockingGet());
+        bulkhead.shutdown();
+    }
+
+    @Test
+    public void deferredUpdatesHoldNoPermitWhileWaiting() throws Exception {
+        UpdateBulkhead bulkhead = new UpdateBulkhead.Builder()
+                .withMaxConcurrency(1)
+                .build();
+        UpdateRateLimiter limiter = new UpdateRateLimiter.Builder()
+                .withRate(1, 300, TimeUnit.MILLISECONDS)
+                .withMaxDelay(1, TimeUnit.SECONDS)
+                .build();
+        StatefulRelay<Integer> relay = new StatefulRelay.Builder<Integer>()
+                .withInitialization(0)
+                .withUpdater(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        return calls.incrementAndGet();
+                    }
+                })
+                .withRateLimiter(limiter)
+                .withBulkhead(bulkhead)
+                .build();
+        assertEquals(Integer.valueOf(0), relay.asFlowable().timeout(5, TimeUnit.SECONDS).blockingFirst());
+        assertEquals(Integer.valueOf(1), relay.update().timeout(5, TimeUnit.SECONDS).blockingGet());
+        awaitAdmitted(bulkhead, 0);
+
+        Maybe<Integer> deferred = relay.update();
+        assertEquals(0, bulkhead.getAdmittedCount());
+        assertEquals(Integer.valueOf(2), deferred.timeout(5, TimeUnit.SECONDS).blockingGet());
+        bulkhead.shutdown();
+    }
+
+    private static void awaitAdmitted(UpdateBulkhead bulkhead, int admitted) throws InterruptedException {
+        for (int i = 0; i < 100 && bulkhead.getAdmittedCount() != admitted; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(admitted, bulkhead.getAdmittedCount());
+    }
+}
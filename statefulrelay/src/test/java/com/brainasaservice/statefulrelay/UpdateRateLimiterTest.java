@@ -0,0 +1,128 @@
+package com.brainasaservice.statefulrelay;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+
+public class UpdateRateLimiterTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final AtomicLong now = new AtomicLong();
+
+    private final Ticker ticker = new Ticker() {
+        @Override
+        public long read() {
+            return now.get();
+        }
+    };
+
+    private UpdateRateLimiter.Builder limiter() {
+        return new UpdateRateLimiter.Builder()
+                .withRate(1, 1, TimeUnit.SECONDS)
+                .withTicker(ticker);
+    }
+
+    @Test
+    public void grantsBurstAndDefersUpToMaxDelay() {
+        UpdateRateLimiter limiter = limiter()
+                .withBurst(3)
+                .withMaxDelay(2, TimeUnit.SECONDS)
+                .build();
+
+        assertEquals(0, limiter.reserve());
+        assertEquals(0, limiter.reserve());
+        assertEquals(0, limiter.reserve());
+        assertEquals(SECOND, limiter.reserve());
+        assertEquals(2 * SECOND, limiter.reserve());
+        assertEquals(-1, limiter.reserve());
+
+        // Rejected reservations do not consume permits.
+        now.addAndGet(SECOND);
+        assertEquals(2 * SECOND, limiter.reserve());
+    }
+
+    @Test
+    public void refillsAfterQuietPeriod() {
+        UpdateRateLimiter limiter = limiter()
+                .withBurst(2)
+                .build();
+
+        assertEquals(0, limiter.reserve());
+        assertEquals(0, limiter.reserve());
+        assertEquals(-1, limiter.reserve());
+
+        now.addAndGet(SECOND);
+        assertEquals(0, limiter.reserve());
+        assertEquals(-1, limiter.reserve());
+
+        // Quiet periods refill the bucket up to the burst only.
+        now.addAndGet(10 * SECOND);
+        assertEquals(0, limiter.reserve());
+        assertEquals(0, limiter.reserve());
+        assertEquals(-1, limiter.reserve());
+    }
+
+    @Test
+    public void concurrentReservationsGrantBurstOnce() throws Exception {
+        final UpdateRateLimiter limiter = limiter()
+                .withBurst(10)
+                .build();
+        final int threads = 8;
+        final CyclicBarrier barrier = new CyclicBarrier(threads);
+        final AtomicInteger granted = new AtomicInteger();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        barrier.await(5, TimeUnit.SECONDS);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                    for (int i = 0; i < 1000; i++) {
+                        if (limiter.reserve() == 0) {
+                            granted.incrementAndGet();
+                        }
+                    }
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        for (Thread worker : workers) {
+            worker.join(10000);
+        }
+
+        assertEquals(10, granted.get());
+    }
+
+    @Test
+    public void rejectedUpdatesKeepTheCurrentValue() throws Exception {
+        final AtomicInteger updates = new AtomicInteger();
+        StatefulRelay<Integer> relay = new StatefulRelay.Builder<Integer>()
+                .withInitialization(0)
+                .withUpdater(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        return updates.incrementAndGet();
+                    }
+                })
+                .withRateLimiter(limiter().build())
+                .build();
+        assertEquals(Integer.valueOf(0), relay.asFlowable().timeout(5, TimeUnit.SECONDS).blockingFirst());
+
+        assertEquals(Integer.valueOf(1), relay.update().timeout(5, TimeUnit.SECONDS).blockingGet());
+        assertEquals(null, relay.update().timeout(5, TimeUnit.SECONDS).blockingGet());
+        assertEquals(Integer.valueOf(1), relay.asFlowable().timeout(5, TimeUnit.SECONDS).blockingFirst());
+        assertEquals(1, updates.get());
+    }
+}
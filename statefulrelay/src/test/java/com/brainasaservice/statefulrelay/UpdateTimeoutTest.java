@@ -0,0 +1,76 @@
+package com.brainasaservice.statefulrelay;
+
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import io.reactivex.functions.Consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class UpdateTimeoutTest {
+    private final CountDownLatch interrupted = new CountDownLatch(1);
+
+    private final CountDownLatch timedOut = new CountDownLatch(1);
+
+    private final Callable<Integer> hangingUpdater = new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+            try {
+                Thread.sleep(3000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                throw e;
+            }
+            return 1;
+        }
+    };
+
+    private final Consumer<TimeoutException> timeoutConsumer = new Consumer<TimeoutException>() {
+        @Override
+        public void accept(TimeoutException e) throws Exception {
+            timedOut.countDown();
+        }
+    };
+
+    @Test
+    public void timeoutInterruptsTheHungUpdate() throws Exception {
+        StatefulRelay<Integer> relay = new StatefulRelay.Builder<Integer>()
+                .withInitialization(0)
+                .withUpdater(hangingUpdater)
+                .withUpdateTimeout(100, TimeUnit.MILLISECONDS, timeoutConsumer)
+                .build();
+
+        assertEquals(Integer.valueOf(0), relay.asFlowable().timeout(5, TimeUnit.SECONDS).blockingFirst());
+        relay.update();
+
+        assertTrue(timedOut.await(1, TimeUnit.SECONDS));
+        assertTrue(interrupted.await(1, TimeUnit.SECONDS));
+        assertEquals(Integer.valueOf(0), relay.asFlowable().timeout(5, TimeUnit.SECONDS).blockingFirst());
+    }
+
+    @Test
+    public void defaultTimeoutIsCapturedWhenTheRelayIsBuilt() {
+        try {
+            StatefulRelay.setDefaultUpdateTimeout(1, TimeUnit.SECONDS);
+            StatefulRelay<Integer> relay = new StatefulRelay.Builder<Integer>()
+                    .withInitialization(0)
+                    .build();
+            StatefulRelay<Integer> explicit = new StatefulRelay.Builder<Integer>()
+                    .withInitialization(0)
+                    .withUpdateTimeout(100, TimeUnit.MILLISECONDS)
+                    .build();
+
+            StatefulRelay.setDefaultUpdateTimeout(5, TimeUnit.SECONDS);
+            assertEquals(1000, relay.getUpdateTimeout());
+            assertEquals(100, explicit.getUpdateTimeout());
+            assertEquals(5000, new StatefulRelay.Builder<Integer>().build().getUpdateTimeout());
+        } finally {
+            StatefulRelay.setDefaultUpdateTimeout(0, TimeUnit.MILLISECONDS);
+        }
+    }
+}